@@ -43,7 +43,7 @@ import java.util.StringTokenizer;
 import org.tensorflow.lite.Interpreter;
 
 /** Classifies images with Tensorflow Lite. */
-public abstract class ImageClassifier {
+public abstract class ImageClassifier implements InputNormalizer {
   // Display preferences
   private static final float GOOD_PROB_THRESHOLD = 0.3f;
   private static final int SMALL_COLOR = 0xffddaa88;
@@ -199,14 +199,8 @@ public abstract class ImageClassifier {
     imgData.rewind();
     bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
     // Convert the image to floating point.
-    int pixel = 0;
     long startTime = SystemClock.uptimeMillis();
-    for (int i = 0; i < getImageSizeX(); ++i) {
-      for (int j = 0; j < getImageSizeY(); ++j) {
-        final int val = intValues[pixel++];
-        addPixelValue(val);
-      }
-    }
+    normalize(intValues, imgData);
     long endTime = SystemClock.uptimeMillis();
     Log.d(TAG, "Timecost to put values into ByteBuffe`r: " + Long.toString(endTime - startTime));
   }
@@ -278,13 +272,6 @@ public abstract class ImageClassifier {
    */
   protected abstract int getNumBytesPerChannel();
 
-  /**
-   * Add pixelValue to byteBuffer.
-   *
-   * @param pixelValue
-   */
-  protected abstract void addPixelValue(int pixelValue);
-
   /**
    * Read the probability value for the specified label This is either the original value as it was
    * read from the net's output or the updated value after the filter was applied.
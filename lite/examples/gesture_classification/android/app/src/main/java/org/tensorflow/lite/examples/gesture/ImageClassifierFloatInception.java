@@ -17,6 +17,8 @@ package org.tensorflow.lite.examples.gesture;
 
 import android.app.Activity;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 
 /**
  * This classifier works with the Inception-v3 slim model. It applies floating point inference
@@ -35,6 +37,14 @@ public class ImageClassifierFloatInception extends ImageClassifier {
    */
   private float[][] labelProbArray = null;
 
+  /** A float view of the input buffer passed to {@link #normalize}, created on first use. */
+  private FloatBuffer floatInput = null;
+
+  private ByteBuffer floatInputSource = null;
+
+  private final NormalizationTables normalization =
+      NormalizationTables.divideThenSubtract(IMAGE_STD, IMAGE_MEAN);
+
   /**
    * Initializes an {@code ImageClassifier}.
    *
@@ -73,11 +83,29 @@ public class ImageClassifierFloatInception extends ImageClassifier {
   }
 
   @Override
-  protected void addPixelValue(int pixelValue) {
+  public void normalize(int[] pixels, ByteBuffer input) {
+    final FloatBuffer floats = getFloatInput(input);
+    final float[] red = normalization.red;
+    final float[] green = normalization.green;
+    final float[] blue = normalization.blue;
+    for (int i = 0, offset = 0; i < pixels.length; i++, offset += 3) {
+      final int pixelValue = pixels[i];
+      floats.put(offset, red[(pixelValue >> 16) & 0xFF]);
+      floats.put(offset + 1, green[(pixelValue >> 8) & 0xFF]);
+      floats.put(offset + 2, blue[pixelValue & 0xFF]);
+    }
+  }
 
-    imgData.putFloat((((pixelValue >> 16) & 0xFF) / IMAGE_STD) - IMAGE_MEAN);
-    imgData.putFloat((((pixelValue >> 8) & 0xFF) / IMAGE_STD) - IMAGE_MEAN);
-    imgData.putFloat(((pixelValue & 0xFF) / IMAGE_STD) - IMAGE_MEAN);
+  private FloatBuffer getFloatInput(ByteBuffer input) {
+    if (input != floatInputSource) {
+      // The view starts at the current position and has the byte order of the buffer it is
+      // created from, so create it from a rewound duplicate.
+      final ByteBuffer start = input.duplicate().order(input.order());
+      start.rewind();
+      floatInput = start.asFloatBuffer();
+      floatInputSource = input;
+    }
+    return floatInput;
   }
 
   @Override
@@ -18,37 +18,117 @@ package org.tensorflow.lite.examples.classification;
 
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
-import android.graphics.Canvas;
 import android.graphics.Matrix;
+import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.media.ImageReader.OnImageAvailableListener;
 import android.os.SystemClock;
 import android.util.Size;
 import android.util.TypedValue;
 import android.widget.Toast;
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import org.tensorflow.lite.examples.classification.env.BorderedText;
+import org.tensorflow.lite.examples.classification.env.FramePipeline;
+import org.tensorflow.lite.examples.classification.env.ImageResampler;
 import org.tensorflow.lite.examples.classification.env.ImageUtils;
 import org.tensorflow.lite.examples.classification.env.Logger;
+import org.tensorflow.lite.examples.classification.env.MetricsRegistry;
+import org.tensorflow.lite.examples.classification.env.MetricsRegistry.Stage;
+import org.tensorflow.lite.examples.classification.env.Tracer;
+import org.tensorflow.lite.examples.classification.env.YuvToTensorConverter;
 import org.tensorflow.lite.examples.classification.tflite.Classifier;
 import org.tensorflow.lite.examples.classification.tflite.Classifier.Device;
 import org.tensorflow.lite.examples.classification.tflite.Classifier.Model;
+import org.tensorflow.lite.examples.classification.tflite.ClassifierBenchmark;
+import org.tensorflow.lite.examples.classification.tflite.ClassifierHolder;
+import org.tensorflow.lite.examples.classification.tflite.ThreadAutotuner;
 
 public class ClassifierActivity extends CameraActivity implements OnImageAvailableListener {
   private static final Logger LOGGER = new Logger();
   private static final boolean MAINTAIN_ASPECT = true;
   private static final Size DESIRED_PREVIEW_SIZE = new Size(640, 480);
   private static final float TEXT_SIZE_DIP = 10;
-  private Bitmap rgbFrameBitmap = null;
+  // Sample frames straight into the model input instead of going through cropped Bitmaps.
+  private static final boolean USE_FUSED_PREPROCESSING = false;
+  // Convert only the part of the frame that ends up in the crop, skipping pixels when downsampling.
+  private static final boolean CONVERT_CROP_REGION_ONLY = false;
+  // Filter used when scaling the converted frame into the crop.
+  private static final ImageResampler.Mode RESAMPLING_MODE = ImageResampler.Mode.BILINEAR;
+  // Rotate the converted frame upright before scaling it, instead of rotating while scaling.
+  private static final boolean ROTATE_BEFORE_CROP = false;
+  // Synthetic inferences run on each new classifier before it classifies frames.
+  private static final int WARM_UP_RUNS = 3;
+  // Pick the thread count of CPU classifiers by timing the model, unless set with the stepper.
+  private static final boolean AUTOTUNE_THREADS = true;
+  // Synthetic inferences timed per thread count when tuning.
+  private static final int AUTOTUNE_RUNS = 10;
+  // Log the per-image latency of batched inference whenever a classifier is created.
+  private static final boolean RUN_BATCH_BENCHMARK = false;
+  private static final int[] BENCHMARK_BATCH_SIZES = {1, 4, 8, 16};
+  private static final int BENCHMARK_ITERATIONS = 10;
+  // Log the throughput of classifier pools of several sizes and thread budgets on startup.
+  private static final boolean RUN_POOL_BENCHMARK = false;
+  private static final int[] BENCHMARK_POOL_SIZES = {1, 2, 4};
+  private static final int[] BENCHMARK_THREAD_BUDGETS = {1, 2, 4, 8};
+  private static final int BENCHMARK_POOL_IMAGES = 100;
+  // Convert, preprocess, classify, rank and show consecutive frames at the same time, each step on
+  // its own thread, instead of one frame after the other. Not used with fused preprocessing.
+  private static final boolean USE_FRAME_PIPELINE = false;
+  // Whether a step that cannot keep up makes the pipeline skip frames, or slow down the camera.
+  private static final FramePipeline.DropPolicy PIPELINE_DROP_POLICY =
+      FramePipeline.DropPolicy.LATEST_WINS;
+  // Frames that may wait in front of each step of the pipeline.
+  private static final int PIPELINE_QUEUE_DEPTH = 1;
+  // Keep trace sections while resumed, and write them as a Chrome trace to the app's external
+  // files directory when paused.
+  private static final boolean RECORD_TRACE = false;
+  private static final int TRACE_CAPACITY = 1 << 15;
+  private static final String TRACE_FILE_NAME = "trace.json";
+  // Format and write log messages on a background thread while resumed, keeping this many waiting.
+  private static final boolean ASYNC_LOGGING = false;
+  private static final int ASYNC_LOG_CAPACITY = 1024;
+  // Record the camera frames to the app's external files directory while resumed, or replay the
+  // recorded ones instead of the camera frames, at the recorded pace or as fast as they are
+  // processed.
+  private static final boolean RECORD_FRAMES = false;
+  private static final boolean REPLAY_FRAMES = false;
+  private static final boolean REPLAY_AT_ORIGINAL_SPEED = true;
+  private static final long FRAMES_CAPACITY = 256L << 20;
+  private static final String FRAMES_FILE_NAME = "frames.yuv";
   private Bitmap croppedBitmap = null;
+  private int[] croppedPixels;
   private Bitmap cropCopyBitmap = null;
-  private long lastProcessingTimeMs;
   private Integer sensorOrientation;
-  private Classifier classifier;
+  // The classifier used by the frame loop, replaced when the configuration changes.
+  private final ClassifierHolder classifierHolder = new ClassifierHolder();
+  // A replacement classifier built on the inference thread, swapped in once it is ready. Only used
+  // on the inference thread, and in onDestroy() once that stopped.
+  private Classifier pendingClassifier;
+  // Tunes the thread count of the newest classifier, if tuned.
+  private volatile ThreadAutotuner threadAutotuner;
+  private FramePipeline<PipelineFrame> framePipeline;
+  private BlockingQueue<PipelineFrame> freePipelineFrames;
   private Matrix frameToCropTransform;
   private Matrix cropToFrameTransform;
+  private ImageResampler cropResampler;
+  private int rgbFrameWidth;
+  private int rgbFrameHeight;
+  // Clockwise rotation applied by ImageUtils.rotate() before cropping, 0 if none.
+  private int frameRotation;
+  private int[] rotatedPixels;
+  private YuvToTensorConverter tensorConverter;
   private BorderedText borderedText;
+  // The size and rotation of the frames set up by onPreviewSizeChosen(), or null.
+  private Size configuredSize;
+  private int configuredRotation;
 
   @Override
   protected int getLayoutId() {
@@ -60,19 +140,41 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
     return DESIRED_PREVIEW_SIZE;
   }
 
+  /**
+   * Sets up for frames of {@code size}, on the UI thread. The camera calls it again after a resume,
+   * with the same size, which is ignored. Replayed frames may change the size, which only rebuilds
+   * the transforms and buffers that depend on it; the classifier and the crop stay.
+   */
   @Override
   public void onPreviewSizeChosen(final Size size, final int rotation) {
-    final float textSizePx =
-        TypedValue.applyDimension(
-            TypedValue.COMPLEX_UNIT_DIP, TEXT_SIZE_DIP, getResources().getDisplayMetrics());
-    borderedText = new BorderedText(textSizePx);
-    borderedText.setTypeface(Typeface.MONOSPACE);
-
-    recreateClassifier(getModel(), getDevice(), getNumThreads());
-    if (classifier == null) {
-      LOGGER.e("No classifier on preview!");
+    if (size.equals(configuredSize) && rotation == configuredRotation) {
       return;
     }
+    if (croppedBitmap == null) {
+      final float textSizePx =
+          TypedValue.applyDimension(
+              TypedValue.COMPLEX_UNIT_DIP, TEXT_SIZE_DIP, getResources().getDisplayMetrics());
+      borderedText = new BorderedText(textSizePx);
+      borderedText.setTypeface(Typeface.MONOSPACE);
+
+      // Frames are skipped until this classifier is warm, instead of waiting for it.
+      final Classifier classifier = createClassifier(getModel(), getDevice(), getNumThreads());
+      classifierHolder.swap(classifier);
+      if (classifier == null) {
+        LOGGER.e("No classifier on preview!");
+        return;
+      }
+      croppedBitmap =
+          Bitmap.createBitmap(
+              classifier.getImageSizeX(), classifier.getImageSizeY(), Config.ARGB_8888);
+      croppedPixels = new int[classifier.getImageSizeX() * classifier.getImageSizeY()];
+    }
+    if (framePipeline != null) {
+      // Its stages use the buffers and transforms replaced below.
+      framePipeline.stop();
+    }
+    configuredSize = size;
+    configuredRotation = rotation;
 
     previewWidth = size.getWidth();
     previewHeight = size.getHeight();
@@ -81,38 +183,393 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
     LOGGER.i("Camera orientation relative to screen canvas: %d", sensorOrientation);
 
     LOGGER.i("Initializing at size %dx%d", previewWidth, previewHeight);
-    rgbFrameBitmap = Bitmap.createBitmap(previewWidth, previewHeight, Config.ARGB_8888);
-    croppedBitmap =
-        Bitmap.createBitmap(
-            classifier.getImageSizeX(), classifier.getImageSizeY(), Config.ARGB_8888);
+    final int cropWidth = croppedBitmap.getWidth();
+    final int cropHeight = croppedBitmap.getHeight();
 
     frameToCropTransform =
         ImageUtils.getTransformationMatrix(
-            previewWidth,
-            previewHeight,
-            classifier.getImageSizeX(),
-            classifier.getImageSizeY(),
-            sensorOrientation,
-            MAINTAIN_ASPECT);
+            previewWidth, previewHeight, cropWidth, cropHeight, sensorOrientation, MAINTAIN_ASPECT);
 
     cropToFrameTransform = new Matrix();
     frameToCropTransform.invert(cropToFrameTransform);
+
+    // Maps the converted pixels into the crop.
+    Matrix rgbFrameToCropTransform;
+    if (CONVERT_CROP_REGION_ONLY) {
+      final Rect region =
+          ImageUtils.getCropSourceRegion(
+              frameToCropTransform, previewWidth, previewHeight, cropWidth, cropHeight);
+      final int step = ImageUtils.getSamplingStep(frameToCropTransform);
+      LOGGER.i("Converting frame region %s every %d pixels", region, step);
+      setConversionRegion(region, step);
+      rgbFrameWidth = ImageUtils.getSampledLength(region.width(), step);
+      rgbFrameHeight = ImageUtils.getSampledLength(region.height(), step);
+      rgbFrameToCropTransform =
+          ImageUtils.getRegionToCropTransform(region, step, frameToCropTransform);
+    } else {
+      rgbFrameWidth = previewWidth;
+      rgbFrameHeight = previewHeight;
+      rgbFrameToCropTransform = frameToCropTransform;
+    }
+    frameRotation = 0;
+    int resampledWidth = rgbFrameWidth;
+    int resampledHeight = rgbFrameHeight;
+    final int rightAngle = ImageUtils.getRightAngleRotation(rgbFrameToCropTransform);
+    if (ROTATE_BEFORE_CROP && rightAngle > 0) {
+      LOGGER.i("Rotating frames by %d degrees before cropping", rightAngle);
+      frameRotation = rightAngle;
+      rotatedPixels = new int[rgbFrameWidth * rgbFrameHeight];
+      if (rightAngle != 180) {
+        resampledWidth = rgbFrameHeight;
+        resampledHeight = rgbFrameWidth;
+      }
+      final Matrix rotatedToCropTransform = new Matrix();
+      ImageUtils.getRotationTransform(rgbFrameWidth, rgbFrameHeight, rightAngle)
+          .invert(rotatedToCropTransform);
+      rotatedToCropTransform.postConcat(rgbFrameToCropTransform);
+      rgbFrameToCropTransform = rotatedToCropTransform;
+    }
+    cropResampler =
+        new ImageResampler(
+            resampledWidth,
+            resampledHeight,
+            rgbFrameToCropTransform,
+            cropWidth,
+            cropHeight,
+            RESAMPLING_MODE);
+
+    if (USE_FUSED_PREPROCESSING) {
+      tensorConverter =
+          new YuvToTensorConverter(
+              previewWidth, previewHeight, frameToCropTransform, cropWidth, cropHeight);
+    } else if (USE_FRAME_PIPELINE) {
+      createFramePipeline();
+    }
+  }
+
+  @Override
+  public synchronized void onResume() {
+    super.onResume();
+    if (ASYNC_LOGGING) {
+      Logger.startAsync(ASYNC_LOG_CAPACITY);
+    }
+    if (RECORD_TRACE) {
+      Tracer.start(TRACE_CAPACITY);
+    }
+    if (framePipeline != null) {
+      framePipeline.start();
+    }
+    final File framesFile = new File(getExternalFilesDir(null), FRAMES_FILE_NAME);
+    if (REPLAY_FRAMES) {
+      startFrameReplay(framesFile, REPLAY_AT_ORIGINAL_SPEED);
+    } else if (RECORD_FRAMES) {
+      startFrameRecording(framesFile, FRAMES_CAPACITY);
+    }
+  }
+
+  @Override
+  public synchronized void onDestroy() {
+    // The inference thread stopped in onPause().
+    if (threadAutotuner != null) {
+      threadAutotuner.stop();
+      threadAutotuner = null;
+    }
+    if (pendingClassifier != null) {
+      pendingClassifier.close();
+      pendingClassifier = null;
+    }
+    classifierHolder.swap(null);
+    super.onDestroy();
+  }
+
+  @Override
+  public synchronized void onPause() {
+    if (framePipeline != null) {
+      framePipeline.stop();
+      for (final FramePipeline.StageMetrics metrics : framePipeline.getMetrics()) {
+        LOGGER.d("Pipeline stage %s", metrics);
+      }
+    }
+    LOGGER.i("Stage latencies:\n%s", MetricsRegistry.dump());
+    if (RECORD_TRACE) {
+      Tracer.stop();
+      final File traceFile = new File(getExternalFilesDir(null), TRACE_FILE_NAME);
+      new Thread(
+              () -> {
+                try {
+                  Tracer.exportChromeTrace(traceFile);
+                } catch (final IOException e) {
+                  LOGGER.e(e, "Failed to export trace.");
+                }
+              },
+              "trace-export")
+          .start();
+    }
+    if (ASYNC_LOGGING) {
+      Logger.stopAsync();
+    }
+    super.onPause();
+  }
+
+  /** The buffers of a frame on its way through the frame pipeline. */
+  private static class PipelineFrame {
+    final int[] rgbPixels;
+    final int[] rotatedPixels;
+    final int[] croppedPixels;
+    final int cropWidth;
+    final int cropHeight;
+    // Whether the camera frame has been converted and handed back.
+    boolean converted;
+    // The model input, and the classifier whose format it was written in.
+    ByteBuffer input;
+    Classifier inputClassifier;
+    // The probability of every label, and the ranker of the classifier that computed them.
+    float[] probabilities;
+    Classifier.ResultRanker ranker;
+    List<Classifier.Recognition> results;
+    // Time spent converting the frame so far.
+    long convertNanos;
+
+    PipelineFrame(int rgbPixelCount, boolean rotate, int cropWidth, int cropHeight) {
+      rgbPixels = new int[rgbPixelCount];
+      rotatedPixels = rotate ? new int[rgbPixelCount] : null;
+      croppedPixels = new int[cropWidth * cropHeight];
+      this.cropWidth = cropWidth;
+      this.cropHeight = cropHeight;
+    }
+  }
+
+  private void createFramePipeline() {
+    if (framePipeline != null) {
+      framePipeline.stop();
+    }
+    framePipeline =
+        new FramePipeline<PipelineFrame>(PIPELINE_DROP_POLICY, this::recyclePipelineFrame)
+            .addStage("convert", PIPELINE_QUEUE_DEPTH, this::convertFrame)
+            .addStage("preprocess", PIPELINE_QUEUE_DEPTH, this::preprocessFrame)
+            .addStage("infer", PIPELINE_QUEUE_DEPTH, this::classifyFrame)
+            .addStage("postprocess", PIPELINE_QUEUE_DEPTH, this::postprocessFrame)
+            .addStage("render", PIPELINE_QUEUE_DEPTH, this::renderFrame);
+    // One more frame than the pipeline holds, so that the camera always has one to fill.
+    final int frameCount = framePipeline.getCapacity() + 1;
+    freePipelineFrames = new ArrayBlockingQueue<>(frameCount);
+    for (int i = 0; i < frameCount; ++i) {
+      freePipelineFrames.add(
+          new PipelineFrame(
+              rgbFrameWidth * rgbFrameHeight,
+              frameRotation != 0,
+              cropResampler.getDstWidth(),
+              cropResampler.getDstHeight()));
+    }
+    framePipeline.start();
+  }
+
+  private void recyclePipelineFrame(final PipelineFrame frame) {
+    if (!frame.converted) {
+      // Dropped before conversion, so the camera still waits for it.
+      readyForNextImage();
+    }
+    frame.converted = false;
+    frame.inputClassifier = null;
+    frame.ranker = null;
+    frame.results = null;
+    freePipelineFrames.offer(frame);
+  }
+
+  private void convertFrame(final PipelineFrame frame) {
+    final long startTime = SystemClock.elapsedRealtimeNanos();
+    getRgbBytes(frame.rgbPixels);
+    frame.convertNanos = SystemClock.elapsedRealtimeNanos() - startTime;
+    frame.converted = true;
+    // The frame has been copied, so the camera can deliver the next one.
+    readyForNextImage();
+  }
+
+  private void preprocessFrame(final PipelineFrame frame) {
+    // Cropping belongs to the convert stage, like outside the pipeline.
+    final long startTime = SystemClock.elapsedRealtimeNanos();
+    if (frame.rotatedPixels != null) {
+      ImageUtils.rotate(
+          frame.rgbPixels, rgbFrameWidth, rgbFrameHeight, frameRotation, frame.rotatedPixels);
+      cropResampler.resample(frame.rotatedPixels, frame.croppedPixels);
+    } else {
+      cropResampler.resample(frame.rgbPixels, frame.croppedPixels);
+    }
+    frame.convertNanos += SystemClock.elapsedRealtimeNanos() - startTime;
+    MetricsRegistry.record(Stage.CONVERT, frame.convertNanos);
+
+    // Normalized into the frame's own input, so that the infer stage only runs the interpreter.
+    final ClassifierHolder.Lease lease = classifierHolder.acquire();
+    if (lease == null) {
+      return;
+    }
+    try {
+      final Classifier classifier = lease.getClassifier();
+      final int inputSize = classifier.getInputBuffer().capacity();
+      if (frame.input == null || frame.input.capacity() != inputSize) {
+        frame.input = ByteBuffer.allocateDirect(inputSize).order(ByteOrder.nativeOrder());
+      }
+      final long normalizeStartTime = SystemClock.elapsedRealtimeNanos();
+      classifier.normalize(frame.croppedPixels, frame.input);
+      MetricsRegistry.record(
+          Stage.PREPROCESS, SystemClock.elapsedRealtimeNanos() - normalizeStartTime);
+      frame.inputClassifier = classifier;
+    } finally {
+      lease.release();
+    }
+  }
+
+  private void classifyFrame(final PipelineFrame frame) {
+    // The classifiers run on the inference thread, which built them, like outside the pipeline.
+    // This stage only waits for it, so that the other stages still overlap inference.
+    final FutureTask<Void> task = new FutureTask<>(() -> classifyFrameInBackground(frame), null);
+    if (!runInBackground(task)) {
+      return;
+    }
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          task.get();
+          return;
+        } catch (final InterruptedException e) {
+          interrupted = true;
+          // Stopping. Unless inference already started on the frame, drop it.
+          if (task.cancel(false)) {
+            return;
+          }
+        } catch (final ExecutionException e) {
+          throw new IllegalStateException("Failed to classify frame.", e.getCause());
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private void classifyFrameInBackground(final PipelineFrame frame) {
+    swapInPendingClassifier();
+    final ClassifierHolder.Lease lease = classifierHolder.acquire();
+    if (lease == null) {
+      return;
+    }
+    try {
+      final Classifier classifier = lease.getClassifier();
+      // Also skipped if the classifier was replaced since the input was written for it.
+      if (!classifier.isReady() || frame.inputClassifier != classifier) {
+        return;
+      }
+      if (frame.probabilities == null || frame.probabilities.length != classifier.getNumLabels()) {
+        frame.probabilities = new float[classifier.getNumLabels()];
+      }
+      classifier.classifyInput(frame.input, frame.probabilities);
+      frame.ranker = classifier.getResultRanker();
+    } finally {
+      lease.release();
+    }
+  }
+
+  private void postprocessFrame(final PipelineFrame frame) {
+    // Ranked here rather than by the classifier, so that ranking overlaps the next inference.
+    if (frame.ranker != null) {
+      frame.results = frame.ranker.rank(frame.probabilities);
+      LOGGER.v("Detect: %s", frame.results);
+    }
+  }
+
+  private void renderFrame(final PipelineFrame frame) {
+    final List<Classifier.Recognition> results = frame.results;
+    if (results == null) {
+      return;
+    }
+    final int cropWidth = frame.cropWidth;
+    final int cropHeight = frame.cropHeight;
+    runOnUiThread(
+        () -> {
+          final long startTime = SystemClock.elapsedRealtimeNanos();
+          showResultsInBottomSheet(results);
+          showFrameInfo(previewWidth + "x" + previewHeight);
+          showCropInfo(cropWidth + "x" + cropHeight);
+          showCameraResolution(cropWidth + "x" + cropHeight);
+          showRotationInfo(String.valueOf(sensorOrientation));
+          showInference(getMedianInferenceTime());
+          showTuningResult();
+          MetricsRegistry.record(Stage.RENDER, SystemClock.elapsedRealtimeNanos() - startTime);
+        });
+  }
+
+  private static String getMedianInferenceTime() {
+    return MetricsRegistry.get(Stage.INFER).getPercentileMicros(50) / 1000 + "ms";
+  }
+
+  /** Shows the thread count picked by the last tuning, which may have run since the last frame. */
+  private void showTuningResult() {
+    final ThreadAutotuner tuner = threadAutotuner;
+    final ThreadAutotuner.Result result = tuner != null ? tuner.getResult() : null;
+    if (result != null) {
+      showTunedNumThreads(result.getNumThreads());
+    }
   }
 
   @Override
   protected void processImage() {
-    rgbFrameBitmap.setPixels(getRgbBytes(), 0, previewWidth, 0, 0, previewWidth, previewHeight);
-    final Canvas canvas = new Canvas(croppedBitmap);
-    canvas.drawBitmap(rgbFrameBitmap, frameToCropTransform, null);
+    if (framePipeline != null) {
+      final PipelineFrame frame = freePipelineFrames.poll();
+      if (frame == null) {
+        LOGGER.w("No free pipeline frame, dropping frame!");
+        readyForNextImage();
+        return;
+      }
+      framePipeline.submit(frame);
+      return;
+    }
+    if (tensorConverter == null) {
+      final long startTime = SystemClock.elapsedRealtimeNanos();
+      if (frameRotation != 0) {
+        ImageUtils.rotate(
+            getRgbBytes(), rgbFrameWidth, rgbFrameHeight, frameRotation, rotatedPixels);
+        cropResampler.resample(rotatedPixels, croppedPixels);
+      } else {
+        cropResampler.resample(getRgbBytes(), croppedPixels);
+      }
+      final int cropWidth = cropResampler.getDstWidth();
+      croppedBitmap.setPixels(
+          croppedPixels, 0, cropWidth, 0, 0, cropWidth, cropResampler.getDstHeight());
+      MetricsRegistry.record(Stage.CONVERT, SystemClock.elapsedRealtimeNanos() - startTime);
+    }
 
     runInBackground(
         new Runnable() {
           @Override
           public void run() {
-            if (classifier != null) {
-              final long startTime = SystemClock.uptimeMillis();
-              final List<Classifier.Recognition> results = classifier.recognizeImage(croppedBitmap);
-              lastProcessingTimeMs = SystemClock.uptimeMillis() - startTime;
+            swapInPendingClassifier();
+            final ClassifierHolder.Lease lease = classifierHolder.acquire();
+            if (lease != null && !lease.getClassifier().isReady()) {
+              // Still warming up; skip the frame rather than wait.
+              lease.release();
+            } else if (lease != null) {
+              final List<Classifier.Recognition> results;
+              try {
+                final Classifier classifier = lease.getClassifier();
+                if (tensorConverter != null) {
+                  // The frame stays valid until readyForNextImage() below.
+                  tensorConverter.setNormalization(
+                      classifier.isQuantized(),
+                      classifier.getImageMean(),
+                      classifier.getImageStd());
+                  final long startTime = SystemClock.elapsedRealtimeNanos();
+                  convertFrameToTensor(tensorConverter, classifier.getInputBuffer());
+                  MetricsRegistry.record(
+                      Stage.CONVERT, SystemClock.elapsedRealtimeNanos() - startTime);
+                  results = classifier.recognizeInputBuffer();
+                } else {
+                  results = classifier.recognizeImage(croppedBitmap);
+                }
+              } finally {
+                lease.release();
+              }
               LOGGER.v("Detect: %s", results);
               cropCopyBitmap = Bitmap.createBitmap(croppedBitmap);
 
@@ -120,12 +577,17 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
                   new Runnable() {
                     @Override
                     public void run() {
+                      final long startTime = SystemClock.elapsedRealtimeNanos();
                       showResultsInBottomSheet(results);
                       showFrameInfo(previewWidth + "x" + previewHeight);
                       showCropInfo(cropCopyBitmap.getWidth() + "x" + cropCopyBitmap.getHeight());
-                      showCameraResolution(canvas.getWidth() + "x" + canvas.getHeight());
+                      showCameraResolution(
+                          croppedBitmap.getWidth() + "x" + croppedBitmap.getHeight());
                       showRotationInfo(String.valueOf(sensorOrientation));
-                      showInference(lastProcessingTimeMs + "ms");
+                      showInference(getMedianInferenceTime());
+                      showTuningResult();
+                      MetricsRegistry.record(
+                          Stage.RENDER, SystemClock.elapsedRealtimeNanos() - startTime);
                     }
                   });
             }
@@ -140,18 +602,45 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
       // Defer creation until we're getting camera frames.
       return;
     }
+    if (threadAutotuner != null) {
+      // The stepper may have set the thread count, which overrides tuning from now on.
+      threadAutotuner.stop();
+      threadAutotuner = null;
+    }
     final Device device = getDevice();
     final Model model = getModel();
     final int numThreads = getNumThreads();
     runInBackground(() -> recreateClassifier(model, device, numThreads));
   }
 
+  /**
+   * Builds a classifier on the inference thread, where it will run, since GPU delegates must be
+   * used on the thread that created them. The classifier is swapped in once it is warm; frames keep
+   * being classified by the old one meanwhile, which is closed once its last inference is done.
+   */
   private void recreateClassifier(Model model, Device device, int numThreads) {
-    if (classifier != null) {
-      LOGGER.d("Closing classifier.");
-      classifier.close();
-      classifier = null;
+    if (pendingClassifier != null) {
+      // Superseded before it was ready.
+      pendingClassifier.close();
+    }
+    pendingClassifier = createClassifier(model, device, numThreads);
+    if (pendingClassifier == null) {
+      // Nothing to classify with in this configuration.
+      classifierHolder.swap(null);
+      return;
+    }
+    swapInPendingClassifier();
+  }
+
+  /** Swaps in the classifier built by {@link #recreateClassifier} once it is ready. */
+  private void swapInPendingClassifier() {
+    if (pendingClassifier != null && pendingClassifier.isReady()) {
+      classifierHolder.swap(pendingClassifier);
+      pendingClassifier = null;
     }
+  }
+
+  private Classifier createClassifier(Model model, Device device, int numThreads) {
     if (device == Device.GPU && model == Model.QUANTIZED) {
       LOGGER.d("Not creating classifier: GPU doesn't support quantized models.");
       runOnUiThread(
@@ -159,14 +648,49 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
             Toast.makeText(this, "GPU does not yet supported quantized models.", Toast.LENGTH_LONG)
                 .show();
           });
-      return;
+      return null;
     }
+    final Classifier classifier;
     try {
       LOGGER.d(
           "Creating classifier (model=%s, device=%s, numThreads=%d)", model, device, numThreads);
-      classifier = Classifier.create(this, model, device, numThreads);
+      classifier =
+          Classifier.create(this, model, device, numThreads, WARM_UP_RUNS, getInferenceExecutor());
     } catch (IOException e) {
       LOGGER.e(e, "Failed to create classifier.");
+      return null;
+    }
+    if (threadAutotuner != null) {
+      // Tunes the classifier being replaced.
+      threadAutotuner.stop();
+      threadAutotuner = null;
+    }
+    if (AUTOTUNE_THREADS && device == Device.CPU && !isNumThreadsChosenByUser()) {
+      threadAutotuner = new ThreadAutotuner(this, MAX_THREADS, AUTOTUNE_RUNS);
+      // The classifier being replaced keeps classifying frames during the measurement, so a
+      // result measured then is used but not saved.
+      classifier.startTuning(threadAutotuner, !classifierHolder.hasClassifier());
+    }
+    if (RUN_BATCH_BENCHMARK) {
+      ClassifierBenchmark.measureBatchLatency(
+          classifier, BENCHMARK_BATCH_SIZES, BENCHMARK_ITERATIONS);
+    }
+    // Pooled classifiers run on several threads, which a GPU delegate does not allow.
+    if (RUN_POOL_BENCHMARK && device != Device.GPU) {
+      try {
+        ClassifierBenchmark.measurePoolThroughput(
+            this,
+            model,
+            device,
+            BENCHMARK_POOL_SIZES,
+            BENCHMARK_THREAD_BUDGETS,
+            BENCHMARK_POOL_IMAGES);
+      } catch (IOException e) {
+        LOGGER.e(e, "Failed to create classifier pool.");
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
     }
+    return classifier;
   }
 }
@@ -34,7 +34,7 @@ import android.view.ViewGroup;
 import java.io.IOException;
 import java.util.List;
 import org.tensorflow.lite.examples.classification.customview.AutoFitTextureView;
-import org.tensorflow.lite.examples.classification.env.ImageUtils;
+import org.tensorflow.lite.examples.classification.env.FrameBufferPool;
 import org.tensorflow.lite.examples.classification.env.Logger;
 
 public class LegacyCameraConnectionFragment extends Fragment {
@@ -52,6 +52,7 @@ public class LegacyCameraConnectionFragment extends Fragment {
   private Camera camera;
   private Camera.PreviewCallback imageListener;
   private Size desiredSize;
+  private FrameBufferPool bufferPool;
   /** The layout identifier to inflate for this Fragment. */
   private int layout;
   /** An {@link AutoFitTextureView} for camera preview. */
@@ -95,7 +96,7 @@ public class LegacyCameraConnectionFragment extends Fragment {
 
           camera.setPreviewCallbackWithBuffer(imageListener);
           Camera.Size s = camera.getParameters().getPreviewSize();
-          camera.addCallbackBuffer(new byte[ImageUtils.getYUVByteSize(s.height, s.width)]);
+          bufferPool.attach(s.width, s.height, camera::addCallbackBuffer);
 
           textureView.setAspectRatio(s.height, s.width);
 
@@ -119,10 +120,14 @@ public class LegacyCameraConnectionFragment extends Fragment {
 
   @SuppressLint("ValidFragment")
   public LegacyCameraConnectionFragment(
-      final Camera.PreviewCallback imageListener, final int layout, final Size desiredSize) {
+      final Camera.PreviewCallback imageListener,
+      final int layout,
+      final Size desiredSize,
+      final FrameBufferPool bufferPool) {
     this.imageListener = imageListener;
     this.layout = layout;
     this.desiredSize = desiredSize;
+    this.bufferPool = bufferPool;
   }
 
   @Override
@@ -183,6 +188,7 @@ public class LegacyCameraConnectionFragment extends Fragment {
 
   protected void stopCamera() {
     if (camera != null) {
+      bufferPool.detach();
       camera.stopPreview();
       camera.setPreviewCallback(null);
       camera.release();
@@ -0,0 +1,229 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.classification.env;
+
+import android.util.Log;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Formats and writes log messages on a background thread, see {@link Logger#startAsync}. Loggers
+ * only copy the format and its arguments into a preallocated ring of records, keeping primitive
+ * arguments unboxed until they are formatted.
+ *
+ * <p>Posting neither locks nor allocates. When the ring is full, messages are dropped and counted
+ * instead of blocking the caller.
+ */
+final class AsyncLogSink {
+  /** The most arguments a record keeps unboxed. Messages with more pass an array. */
+  static final int MAX_ARGS = 2;
+
+  private static final byte ARG_LONG = 0;
+  private static final byte ARG_DOUBLE = 1;
+  private static final byte ARG_OBJECT = 2;
+
+  // How long the writer sleeps when there is nothing to write.
+  private static final long IDLE_NANOS = 2_000_000;
+
+  /** A message waiting to be formatted. Filled by the logger between claim() and publish(). */
+  static final class Record {
+    private long position;
+    private int level;
+    private String tag;
+    private String prefix;
+    private String format;
+    private Throwable throwable;
+    private Object[] args;
+    private int argCount;
+    private final byte[] kinds = new byte[MAX_ARGS];
+    private final long[] longs = new long[MAX_ARGS];
+    private final double[] doubles = new double[MAX_ARGS];
+    private final Object[] objects = new Object[MAX_ARGS];
+
+    Record set(
+        final int level,
+        final String tag,
+        final String prefix,
+        final Throwable throwable,
+        final String format) {
+      this.level = level;
+      this.tag = tag;
+      this.prefix = prefix;
+      this.throwable = throwable;
+      this.format = format;
+      this.args = null;
+      this.argCount = 0;
+      return this;
+    }
+
+    Record add(final long arg) {
+      kinds[argCount] = ARG_LONG;
+      longs[argCount++] = arg;
+      return this;
+    }
+
+    Record add(final double arg) {
+      kinds[argCount] = ARG_DOUBLE;
+      doubles[argCount++] = arg;
+      return this;
+    }
+
+    Record add(final Object arg) {
+      kinds[argCount] = ARG_OBJECT;
+      objects[argCount++] = arg;
+      return this;
+    }
+
+    /** Passes the arguments of a varargs call, which are already boxed. */
+    Record addAll(final Object[] args) {
+      this.args = args;
+      return this;
+    }
+
+    private String toMessage() {
+      Object[] formatArgs = args;
+      if (formatArgs == null && argCount > 0) {
+        formatArgs = new Object[argCount];
+        for (int i = 0; i < argCount; ++i) {
+          switch (kinds[i]) {
+            case ARG_LONG:
+              formatArgs[i] = longs[i];
+              break;
+            case ARG_DOUBLE:
+              formatArgs[i] = doubles[i];
+              break;
+            default:
+              formatArgs[i] = objects[i];
+              break;
+          }
+        }
+      }
+      String message;
+      try {
+        message =
+            prefix
+                + (formatArgs != null && formatArgs.length > 0
+                    ? String.format(format, formatArgs)
+                    : format);
+      } catch (RuntimeException e) {
+        // Thrown to the caller when logging synchronously; here it would stop the writer.
+        message = prefix + format + " (" + e + ")";
+      }
+      return throwable != null ? message + '\n' + Log.getStackTraceString(throwable) : message;
+    }
+
+    private void clear() {
+      throwable = null;
+      args = null;
+      for (int i = 0; i < MAX_ARGS; ++i) {
+        objects[i] = null;
+      }
+    }
+  }
+
+  private final int mask;
+  private final Record[] records;
+  // The position at which each record may be claimed next, or that position + 1 once published.
+  private final AtomicLongArray sequences;
+  private final AtomicLong claimed = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private final Thread writer;
+  private volatile boolean running = true;
+  private long written;
+
+  /** @param capacity The number of messages kept until written, a power of two. */
+  AsyncLogSink(final int capacity) {
+    mask = capacity - 1;
+    records = new Record[capacity];
+    sequences = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; ++i) {
+      records[i] = new Record();
+      sequences.set(i, i);
+    }
+    writer = new Thread(this::run, "async-log");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Reserves the next record. Fill it and {@link #publish} it.
+   *
+   * @return The record, or null if the ring is full and the message is dropped.
+   */
+  Record claim() {
+    while (true) {
+      final long position = claimed.get();
+      final int slot = (int) (position & mask);
+      final long sequence = sequences.get(slot);
+      if (sequence < position) {
+        dropped.incrementAndGet();
+        return null;
+      }
+      if (sequence == position && claimed.compareAndSet(position, position + 1)) {
+        final Record record = records[slot];
+        record.position = position;
+        return record;
+      }
+    }
+  }
+
+  void publish(final Record record) {
+    sequences.set((int) (record.position & mask), record.position + 1);
+  }
+
+  /** Writes the messages posted so far and stops the writer. */
+  void close() {
+    running = false;
+    LockSupport.unpark(writer);
+    try {
+      writer.join();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void run() {
+    long reportedDrops = 0;
+    while (running) {
+      if (!writeAvailable()) {
+        LockSupport.parkNanos(this, IDLE_NANOS);
+      }
+      final long drops = dropped.get();
+      if (drops != reportedDrops) {
+        Log.w(Logger.DEFAULT_TAG, "Dropped " + (drops - reportedDrops) + " log messages");
+        reportedDrops = drops;
+      }
+    }
+    writeAvailable();
+  }
+
+  /** Writes the published records in order, up to the first one still being filled. */
+  private boolean writeAvailable() {
+    final long start = written;
+    while (true) {
+      final int slot = (int) (written & mask);
+      if (sequences.get(slot) != written + 1) {
+        return written != start;
+      }
+      final Record record = records[slot];
+      Log.println(record.level, record.tag, record.toMessage());
+      record.clear();
+      sequences.set(slot, written + mask + 1);
+      ++written;
+    }
+  }
+}
@@ -0,0 +1,183 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.classification.env;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded ring buffer between exactly one producer thread and one consumer thread. Neither side
+ * takes a lock: the producer publishes elements by advancing the tail, the consumer claims them by
+ * advancing the head. A waiting side parks, and is unparked by the other side once there is
+ * something to do.
+ *
+ * <p>A full queue either makes the producer wait, see {@link #offerBlocking}, or lets it evict the
+ * oldest element, see {@link #offerEvictingOldest}. Eviction races with the consumer for the head,
+ * which is why the head is advanced with compare-and-set.
+ */
+final class BoundedSpscQueue<T> {
+  private final int capacity;
+  private final AtomicReferenceArray<T> elements;
+  // Written by the producer before the tail is advanced, so they are visible with the element.
+  private final long[] enqueueTimes;
+
+  private final AtomicLong head = new AtomicLong();
+  private final AtomicLong tail = new AtomicLong();
+
+  private volatile Thread waitingConsumer;
+  private volatile Thread waitingProducer;
+  private volatile boolean closed;
+
+  // Only used by the consumer.
+  private long lastWaitNanos;
+
+  BoundedSpscQueue(final int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("A queue needs room for at least one element.");
+    }
+    this.capacity = capacity;
+    elements = new AtomicReferenceArray<>(capacity);
+    enqueueTimes = new long[capacity];
+  }
+
+  int capacity() {
+    return capacity;
+  }
+
+  /** Returns the number of queued elements. May be stale by the time it returns. */
+  int size() {
+    return (int) Math.max(0, Math.min(capacity, tail.get() - head.get()));
+  }
+
+  /**
+   * Adds {@code element}, first removing the oldest element if the queue is full. Producer only.
+   *
+   * @return The evicted element, or null if there was room.
+   */
+  T offerEvictingOldest(final T element) {
+    final long t = tail.get();
+    T evicted = null;
+    while (t - head.get() >= capacity) {
+      final long h = head.get();
+      final T oldest = elements.get(index(h));
+      if (head.compareAndSet(h, h + 1)) {
+        evicted = oldest;
+      }
+    }
+    publish(t, element);
+    return evicted;
+  }
+
+  /**
+   * Adds {@code element}, waiting for room if the queue is full. Producer only.
+   *
+   * @return False if the queue was closed before there was room.
+   */
+  boolean offerBlocking(final T element) throws InterruptedException {
+    final long t = tail.get();
+    while (t - head.get() >= capacity) {
+      if (closed) {
+        return false;
+      }
+      waitingProducer = Thread.currentThread();
+      if (t - head.get() >= capacity && !closed) {
+        LockSupport.park(this);
+      }
+      waitingProducer = null;
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+    }
+    publish(t, element);
+    return true;
+  }
+
+  /**
+   * Removes the oldest element, waiting for one if the queue is empty. Consumer only.
+   *
+   * @return The element, or null once the queue is closed. Elements left in a closed queue can
+   *     still be removed with {@link #poll()}.
+   */
+  T take() throws InterruptedException {
+    while (true) {
+      if (closed) {
+        return null;
+      }
+      final T element = poll();
+      if (element != null) {
+        return element;
+      }
+      waitingConsumer = Thread.currentThread();
+      if (head.get() == tail.get() && !closed) {
+        LockSupport.park(this);
+      }
+      waitingConsumer = null;
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+    }
+  }
+
+  /** Removes the oldest element. Consumer only. Returns null if the queue is empty. */
+  T poll() {
+    while (true) {
+      final long h = head.get();
+      if (h == tail.get()) {
+        return null;
+      }
+      final int index = index(h);
+      final T element = elements.get(index);
+      final long enqueueTime = enqueueTimes[index];
+      // Fails if the producer evicted this element in the meantime.
+      if (head.compareAndSet(h, h + 1)) {
+        lastWaitNanos = System.nanoTime() - enqueueTime;
+        unpark(waitingProducer);
+        return element;
+      }
+    }
+  }
+
+  /** Returns how long the element last removed from the queue was queued. Consumer only. */
+  long getLastWaitNanos() {
+    return lastWaitNanos;
+  }
+
+  /** Wakes up both sides. Waiting stops once the queue is empty, and blocking offers fail. */
+  void close() {
+    closed = true;
+    unpark(waitingConsumer);
+    unpark(waitingProducer);
+  }
+
+  private void publish(final long t, final T element) {
+    final int index = index(t);
+    enqueueTimes[index] = System.nanoTime();
+    elements.set(index, element);
+    tail.set(t + 1);
+    unpark(waitingConsumer);
+  }
+
+  private int index(final long position) {
+    return (int) (position % capacity);
+  }
+
+  private static void unpark(final Thread thread) {
+    if (thread != null) {
+      LockSupport.unpark(thread);
+    }
+  }
+}
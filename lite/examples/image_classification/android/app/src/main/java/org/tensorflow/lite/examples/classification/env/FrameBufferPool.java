@@ -0,0 +1,143 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.classification.env;
+
+/**
+ * A fixed set of YUV420SP preview buffers shared between the camera and the app. The camera fills
+ * the buffers it has been given and hands them to the preview callback, which passes them back with
+ * {@link #recycle} as soon as it is done with them. With more than one buffer, the camera keeps
+ * capturing while the app still holds a frame.
+ *
+ * <p>When every buffer is held by the app, the camera has nowhere to write and drops frames. The
+ * pool counts how often that happens, see {@link #getStarvationCount()}.
+ *
+ * <p>All methods are thread safe.
+ */
+public class FrameBufferPool {
+  /** Receives buffers that are ready to be filled, i.e. {@code Camera::addCallbackBuffer}. */
+  public interface BufferSink {
+    void addBuffer(byte[] buffer);
+  }
+
+  private final int depth;
+
+  private byte[][] buffers = new byte[0][];
+  private boolean[] held = new boolean[0];
+  private int heldCount;
+  private BufferSink sink;
+
+  private long frameCount;
+  private long starvationCount;
+
+  /** @param depth The number of buffers. */
+  public FrameBufferPool(final int depth) {
+    if (depth < 1) {
+      throw new IllegalArgumentException("A frame buffer pool needs at least one buffer.");
+    }
+    this.depth = depth;
+  }
+
+  public int getDepth() {
+    return depth;
+  }
+
+  /**
+   * Hands every buffer that the app does not hold to {@code sink}, e.g. when a camera is opened.
+   * Buffers are reallocated if the frame size changed, in which case buffers still held by the app
+   * are no longer recycled.
+   *
+   * @param width Width of the frames.
+   * @param height Height of the frames.
+   * @param sink Receives the buffers now, and every recycled buffer from then on.
+   */
+  public synchronized void attach(final int width, final int height, final BufferSink sink) {
+    final int bufferSize = ImageUtils.getYUVByteSize(width, height);
+    if (buffers.length == 0 || buffers[0].length != bufferSize) {
+      buffers = new byte[depth][bufferSize];
+      held = new boolean[depth];
+      heldCount = 0;
+    }
+    this.sink = sink;
+    for (int i = 0; i < depth; i++) {
+      if (!held[i]) {
+        sink.addBuffer(buffers[i]);
+      }
+    }
+  }
+
+  /** Stops handing buffers to the current sink, e.g. when the camera is released. */
+  public synchronized void detach() {
+    sink = null;
+  }
+
+  /** Records that the camera delivered {@code buffer} to the app. */
+  public synchronized void onFrameReceived(final byte[] buffer) {
+    final int index = indexOf(buffer);
+    if (index < 0 || held[index]) {
+      return;
+    }
+    held[index] = true;
+    heldCount++;
+    frameCount++;
+    if (heldCount == depth) {
+      starvationCount++;
+    }
+  }
+
+  /**
+   * Hands {@code buffer} back to the camera. Buffers that are not held by the app, e.g. because
+   * they were recycled already, are ignored.
+   */
+  public synchronized void recycle(final byte[] buffer) {
+    final int index = indexOf(buffer);
+    if (index < 0 || !held[index]) {
+      return;
+    }
+    held[index] = false;
+    heldCount--;
+    if (sink != null) {
+      sink.addBuffer(buffer);
+    }
+  }
+
+  /** Returns the number of buffers currently held by the app. */
+  public synchronized int getHeldCount() {
+    return heldCount;
+  }
+
+  /** Returns the number of frames delivered since the pool was created. */
+  public synchronized long getFrameCount() {
+    return frameCount;
+  }
+
+  /**
+   * Returns how many delivered frames left the camera without a buffer to write the next frame
+   * into. If this grows with the frame count, the app holds frames too long or the pool is too
+   * shallow.
+   */
+  public synchronized long getStarvationCount() {
+    return starvationCount;
+  }
+
+  private int indexOf(final byte[] buffer) {
+    for (int i = 0; i < buffers.length; i++) {
+      if (buffers[i] == buffer) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
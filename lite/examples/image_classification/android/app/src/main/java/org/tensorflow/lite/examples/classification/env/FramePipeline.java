@@ -0,0 +1,364 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.classification.env;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs frames through a chain of stages, e.g. convert, preprocess, infer, postprocess and render,
+ * each on its own thread. Stages are connected by bounded single-producer/single-consumer queues,
+ * so while one stage works on a frame, the previous stage already works on the next one.
+ *
+ * <p>Frames are mutable objects owned by the caller, which hands them in with {@link #submit} and
+ * gets them back through the {@link Recycler} once they left the pipeline, either after the last
+ * stage or because they were dropped. What happens when a stage cannot keep up is decided by the
+ * {@link DropPolicy}.
+ *
+ * @param <T> The type of the frames.
+ */
+public class FramePipeline<T> {
+  private static final Logger LOGGER = new Logger();
+
+  /** What to do with a frame that arrives at a full queue. */
+  public enum DropPolicy {
+    /** Drop the oldest queued frame, so that the pipeline always works on the newest frames. */
+    LATEST_WINS,
+    /** Wait for room, which passes the backpressure on to the previous stage. */
+    BLOCK
+  }
+
+  /** Does the work of a stage on a frame, and passes it on by returning. */
+  public interface Stage<T> {
+    void process(T frame);
+  }
+
+  /** Takes back frames that left the pipeline. Called on the thread that released the frame. */
+  public interface Recycler<T> {
+    void recycle(T frame);
+  }
+
+  /** Counters of a stage. All times are in nanoseconds. */
+  public static class StageMetrics {
+    private final String name;
+    private final AtomicLong processedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong totalProcessNanos = new AtomicLong();
+    private volatile int maxQueueDepth;
+
+    private StageMetrics(final String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /** Returns the number of frames the stage processed. */
+    public long getProcessedCount() {
+      return processedCount.get();
+    }
+
+    /** Returns the number of frames dropped from the queue in front of the stage. */
+    public long getDroppedCount() {
+      return droppedCount.get();
+    }
+
+    /** Returns the mean time frames spent in the queue in front of the stage. */
+    public long getMeanWaitNanos() {
+      final long count = processedCount.get();
+      return count > 0 ? totalWaitNanos.get() / count : 0;
+    }
+
+    public long getMaxWaitNanos() {
+      return maxWaitNanos.get();
+    }
+
+    /** Returns the mean time the stage spent on a frame. */
+    public long getMeanProcessNanos() {
+      final long count = processedCount.get();
+      return count > 0 ? totalProcessNanos.get() / count : 0;
+    }
+
+    /** Returns the largest number of frames seen queued in front of the stage. */
+    public int getMaxQueueDepth() {
+      return maxQueueDepth;
+    }
+
+    private void recordQueueDepth(final int depth) {
+      // Only written by the producer of the queue.
+      if (depth > maxQueueDepth) {
+        maxQueueDepth = depth;
+      }
+    }
+
+    private void recordFrame(final long waitNanos, final long processNanos) {
+      processedCount.incrementAndGet();
+      totalWaitNanos.addAndGet(waitNanos);
+      totalProcessNanos.addAndGet(processNanos);
+      if (waitNanos > maxWaitNanos.get()) {
+        maxWaitNanos.set(waitNanos);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%s: %d frames, %d dropped, wait %.2f ms (max %.2f ms), process %.2f ms, queue depth %d",
+          name,
+          getProcessedCount(),
+          getDroppedCount(),
+          getMeanWaitNanos() / 1e6f,
+          getMaxWaitNanos() / 1e6f,
+          getMeanProcessNanos() / 1e6f,
+          getMaxQueueDepth());
+    }
+  }
+
+  private static class StageDefinition<T> {
+    final String name;
+    final int queueDepth;
+    final Stage<T> stage;
+    final StageMetrics metrics;
+
+    StageDefinition(final String name, final int queueDepth, final Stage<T> stage) {
+      this.name = name;
+      this.queueDepth = queueDepth;
+      this.stage = stage;
+      metrics = new StageMetrics(name);
+    }
+  }
+
+  private final DropPolicy dropPolicy;
+  private final Recycler<T> recycler;
+  private final List<StageDefinition<T>> stages = new ArrayList<>();
+
+  // Set while running.
+  private List<BoundedSpscQueue<T>> queues;
+  private Thread[] threads;
+  // Whether submit() is handing a frame to the first queue.
+  private boolean submitting;
+
+  public FramePipeline(final DropPolicy dropPolicy, final Recycler<T> recycler) {
+    this.dropPolicy = dropPolicy;
+    this.recycler = recycler;
+  }
+
+  /**
+   * Appends a stage. Stages can only be added while the pipeline is stopped.
+   *
+   * @param name Name of the stage and its thread.
+   * @param queueDepth How many frames may wait in front of the stage.
+   * @param stage The work of the stage.
+   */
+  public synchronized FramePipeline<T> addStage(
+      final String name, final int queueDepth, final Stage<T> stage) {
+    if (threads != null) {
+      throw new IllegalStateException("Cannot add stages to a running pipeline.");
+    }
+    stages.add(new StageDefinition<>(name, queueDepth, stage));
+    return this;
+  }
+
+  /**
+   * Returns the most frames the pipeline can hold at once: one in every queue slot and one in every
+   * stage. A caller that preallocates frames needs one more, for the frame being submitted.
+   */
+  public synchronized int getCapacity() {
+    int capacity = 0;
+    for (final StageDefinition<T> stage : stages) {
+      capacity += stage.queueDepth + 1;
+    }
+    return capacity;
+  }
+
+  public DropPolicy getDropPolicy() {
+    return dropPolicy;
+  }
+
+  /** Returns the counters of every stage, in pipeline order. */
+  public synchronized List<StageMetrics> getMetrics() {
+    final List<StageMetrics> metrics = new ArrayList<>(stages.size());
+    for (final StageDefinition<T> stage : stages) {
+      metrics.add(stage.metrics);
+    }
+    return metrics;
+  }
+
+  /** Starts one thread per stage. Does nothing if the pipeline is running already. */
+  public synchronized void start() {
+    if (threads != null) {
+      return;
+    }
+    if (stages.isEmpty()) {
+      throw new IllegalStateException("A pipeline needs at least one stage.");
+    }
+    queues = new ArrayList<>(stages.size());
+    for (final StageDefinition<T> stage : stages) {
+      queues.add(new BoundedSpscQueue<T>(stage.queueDepth));
+    }
+    threads = new Thread[stages.size()];
+    for (int i = 0; i < threads.length; ++i) {
+      final int index = i;
+      threads[i] = new Thread(() -> runStage(index), stages.get(i).name);
+      threads[i].start();
+    }
+  }
+
+  /**
+   * Hands a frame to the first stage. Must always be called from the same thread. If the pipeline
+   * is not running, the frame is recycled right away.
+   */
+  public void submit(final T frame) {
+    final BoundedSpscQueue<T> queue;
+    synchronized (this) {
+      queue = queues != null ? queues.get(0) : null;
+      submitting = queue != null;
+    }
+    if (queue == null) {
+      recycler.recycle(frame);
+      return;
+    }
+    try {
+      enqueue(0, queue, frame);
+    } finally {
+      synchronized (this) {
+        submitting = false;
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Stops every stage and waits for their threads to finish the frame they work on. Frames still
+   * queued are recycled without being processed.
+   */
+  public void stop() {
+    final List<BoundedSpscQueue<T>> stoppedQueues;
+    final Thread[] stoppedThreads;
+    synchronized (this) {
+      if (threads == null) {
+        return;
+      }
+      stoppedQueues = queues;
+      stoppedThreads = threads;
+      queues = null;
+      threads = null;
+    }
+    for (final BoundedSpscQueue<T> queue : stoppedQueues) {
+      queue.close();
+    }
+    for (final Thread thread : stoppedThreads) {
+      thread.interrupt();
+    }
+    boolean interrupted = false;
+    synchronized (this) {
+      // A closed queue fails blocking offers, so this does not wait for long.
+      while (submitting) {
+        try {
+          wait();
+        } catch (final InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+    for (final Thread thread : stoppedThreads) {
+      while (thread.isAlive()) {
+        try {
+          thread.join();
+        } catch (final InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+    // Every producer and consumer is done, so this thread can empty the queues.
+    for (final BoundedSpscQueue<T> queue : stoppedQueues) {
+      drain(queue);
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void runStage(final int index) {
+    final StageDefinition<T> definition = stages.get(index);
+    final BoundedSpscQueue<T> input;
+    final BoundedSpscQueue<T> output;
+    synchronized (this) {
+      input = queues.get(index);
+      output = index + 1 < queues.size() ? queues.get(index + 1) : null;
+    }
+    try {
+      T frame;
+      while ((frame = input.take()) != null) {
+        final long startTime = System.nanoTime();
+        Tracer.beginSection(definition.name);
+        try {
+          definition.stage.process(frame);
+        } catch (final RuntimeException e) {
+          LOGGER.e(e, "Stage %s failed, dropping frame.", definition.name);
+          definition.metrics.droppedCount.incrementAndGet();
+          recycler.recycle(frame);
+          continue;
+        } finally {
+          Tracer.endSection();
+        }
+        definition.metrics.recordFrame(input.getLastWaitNanos(), System.nanoTime() - startTime);
+        if (output != null) {
+          enqueue(index + 1, output, frame);
+        } else {
+          recycler.recycle(frame);
+        }
+      }
+    } catch (final InterruptedException e) {
+      // Stopped. The remaining frames are recycled by stop().
+    }
+  }
+
+  private void enqueue(final int index, final BoundedSpscQueue<T> queue, final T frame) {
+    final StageMetrics metrics = stages.get(index).metrics;
+    if (dropPolicy == DropPolicy.LATEST_WINS) {
+      final T evicted = queue.offerEvictingOldest(frame);
+      if (evicted != null) {
+        metrics.droppedCount.incrementAndGet();
+        recycler.recycle(evicted);
+      }
+    } else {
+      try {
+        if (!queue.offerBlocking(frame)) {
+          recycler.recycle(frame);
+          return;
+        }
+      } catch (final InterruptedException e) {
+        recycler.recycle(frame);
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+    metrics.recordQueueDepth(queue.size());
+  }
+
+  /** Recycles the frames left in a closed queue. */
+  private void drain(final BoundedSpscQueue<T> queue) {
+    T frame;
+    while ((frame = queue.poll()) != null) {
+      recycler.recycle(frame);
+    }
+  }
+}
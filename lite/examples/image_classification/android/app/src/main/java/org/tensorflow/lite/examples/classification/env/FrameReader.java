@@ -0,0 +1,207 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.classification.env;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the frames of a capture file written by {@link FrameRecorder}. The file is memory-mapped,
+ * and the planes of a frame are views of the mapped pages rather than copies.
+ */
+public final class FrameReader implements Closeable {
+  /**
+   * A recorded frame, laid out like a Camera2 image whatever camera it came from. The planes stay
+   * valid after the reader is closed.
+   */
+  public static final class Frame {
+    private final long timestampNanos;
+    private final int width;
+    private final int height;
+    private final int sensorOrientation;
+    private final ByteBuffer yBuffer;
+    private final ByteBuffer uBuffer;
+    private final ByteBuffer vBuffer;
+    private final int yRowStride;
+    private final int uvRowStride;
+    private final int uvPixelStride;
+
+    private Frame(
+        final long timestampNanos,
+        final int width,
+        final int height,
+        final int sensorOrientation,
+        final ByteBuffer yBuffer,
+        final ByteBuffer uBuffer,
+        final ByteBuffer vBuffer,
+        final int yRowStride,
+        final int uvRowStride,
+        final int uvPixelStride) {
+      this.timestampNanos = timestampNanos;
+      this.width = width;
+      this.height = height;
+      this.sensorOrientation = sensorOrientation;
+      this.yBuffer = yBuffer;
+      this.uBuffer = uBuffer;
+      this.vBuffer = vBuffer;
+      this.yRowStride = yRowStride;
+      this.uvRowStride = uvRowStride;
+      this.uvPixelStride = uvPixelStride;
+    }
+
+    public long getTimestampNanos() {
+      return timestampNanos;
+    }
+
+    public int getWidth() {
+      return width;
+    }
+
+    public int getHeight() {
+      return height;
+    }
+
+    public int getSensorOrientation() {
+      return sensorOrientation;
+    }
+
+    public ByteBuffer getYBuffer() {
+      return yBuffer;
+    }
+
+    public ByteBuffer getUBuffer() {
+      return uBuffer;
+    }
+
+    public ByteBuffer getVBuffer() {
+      return vBuffer;
+    }
+
+    public int getYRowStride() {
+      return yRowStride;
+    }
+
+    public int getUvRowStride() {
+      return uvRowStride;
+    }
+
+    public int getUvPixelStride() {
+      return uvPixelStride;
+    }
+  }
+
+  private final RandomAccessFile randomAccessFile;
+  private final MappedByteBuffer buffer;
+  private final int frameCount;
+  private int position = FrameRecorder.HEADER_BYTES;
+
+  public FrameReader(final File file) throws IOException {
+    randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      final long length = randomAccessFile.length();
+      if (length < FrameRecorder.HEADER_BYTES || length > Integer.MAX_VALUE) {
+        throw new IOException("Not a capture file: " + file);
+      }
+      buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      if (buffer.getInt(0) != FrameRecorder.MAGIC) {
+        throw new IOException("Not a capture file: " + file);
+      }
+      if (buffer.getInt(4) != FrameRecorder.VERSION) {
+        throw new IOException("Unsupported capture file version " + buffer.getInt(4));
+      }
+      frameCount = buffer.getInt(FrameRecorder.FRAME_COUNT_OFFSET);
+    } catch (final IOException e) {
+      randomAccessFile.close();
+      throw e;
+    }
+  }
+
+  /** Returns the number of complete frames in the file. */
+  public int getFrameCount() {
+    return frameCount;
+  }
+
+  /** Returns the next frame, or null after the last one. */
+  public Frame next() {
+    if (position + FrameRecorder.FRAME_HEADER_BYTES > buffer.limit()
+        || buffer.getInt(position) != FrameRecorder.FRAME_MAGIC) {
+      return null;
+    }
+    final int format = buffer.getInt(position + 4);
+    final long timestampNanos = buffer.getLong(position + 8);
+    final int width = buffer.getInt(position + 16);
+    final int height = buffer.getInt(position + 20);
+    final int sensorOrientation = buffer.getInt(position + 24);
+    final int yRowStride = buffer.getInt(position + 28);
+    final int uvRowStride = buffer.getInt(position + 32);
+    final int uvPixelStride = buffer.getInt(position + 36);
+    final int yLength = buffer.getInt(position + 40);
+    final int uLength = buffer.getInt(position + 44);
+    final int vLength = buffer.getInt(position + 48);
+    final int start = position + FrameRecorder.FRAME_HEADER_BYTES;
+    if ((long) start + yLength + uLength + vLength > buffer.limit()) {
+      return null;
+    }
+    position = start + yLength + uLength + vLength;
+
+    if (format == FrameRecorder.FORMAT_NV21) {
+      // The interleaved chroma of NV21 seen as a V plane and a U plane one byte further.
+      final int lumaLength = width * height;
+      return new Frame(
+          timestampNanos,
+          width,
+          height,
+          sensorOrientation,
+          slice(start, lumaLength),
+          slice(start + lumaLength + 1, yLength - lumaLength - 1),
+          slice(start + lumaLength, yLength - lumaLength),
+          yRowStride,
+          uvRowStride,
+          uvPixelStride);
+    }
+    return new Frame(
+        timestampNanos,
+        width,
+        height,
+        sensorOrientation,
+        slice(start, yLength),
+        slice(start + yLength, uLength),
+        slice(start + yLength + uLength, vLength),
+        yRowStride,
+        uvRowStride,
+        uvPixelStride);
+  }
+
+  @Override
+  public void close() throws IOException {
+    // The mapping stays valid for the frames read so far.
+    randomAccessFile.close();
+  }
+
+  private ByteBuffer slice(final int start, final int length) {
+    final ByteBuffer view = buffer.duplicate();
+    view.position(start);
+    view.limit(start + length);
+    return view.slice();
+  }
+}
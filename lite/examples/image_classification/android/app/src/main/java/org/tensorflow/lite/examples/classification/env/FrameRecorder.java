@@ -0,0 +1,245 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.classification.env;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends raw camera frames to a capture file, so that they can be replayed later with {@link
+ * FrameReader}. The file is preallocated and memory-mapped: the planes are copied straight from the
+ * camera buffers into the mapped pages, without an intermediate buffer, a system call or an
+ * allocation per frame.
+ *
+ * <p>The file starts with a header of {@link #HEADER_BYTES} bytes, followed by the frames. Each
+ * frame has a header of {@link #FRAME_HEADER_BYTES} bytes and its planes. All values are little
+ * endian. The magic number of a frame is written last, so a frame cut short by a crash is not read.
+ */
+public final class FrameRecorder {
+  private static final Logger LOGGER = new Logger();
+
+  static final int MAGIC = 0x52565559; // "YUVR"
+  static final int VERSION = 1;
+  static final int FRAME_MAGIC = 0x4d415246; // "FRAM"
+
+  /** Frames of Camera2 images: Y, U and V planes. */
+  static final int FORMAT_YUV_420_888 = 1;
+  /** Frames of the legacy camera: a single NV21 buffer. */
+  static final int FORMAT_NV21 = 2;
+
+  // Magic, version and frame count.
+  static final int HEADER_BYTES = 12;
+  static final int FRAME_COUNT_OFFSET = 8;
+  // Magic, format, timestamp, width, height, sensor orientation, Y row stride, UV row stride, UV
+  // pixel stride and the lengths of the three planes.
+  static final int FRAME_HEADER_BYTES = 52;
+
+  private final File file;
+  private final RandomAccessFile randomAccessFile;
+  private final MappedByteBuffer buffer;
+  private int position = HEADER_BYTES;
+  private int frameCount;
+  private boolean full;
+  private boolean closed;
+
+  /**
+   * Creates or replaces {@code file}, and maps it.
+   *
+   * @param capacity The size of the file in bytes, at most 2 GB. Frames that do not fit any more
+   *     are not recorded.
+   */
+  public FrameRecorder(final File file, final long capacity) throws IOException {
+    if (capacity < HEADER_BYTES || capacity > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Capture files hold from " + HEADER_BYTES + " B to 2 GB.");
+    }
+    this.file = file;
+    randomAccessFile = new RandomAccessFile(file, "rw");
+    try {
+      randomAccessFile.setLength(0);
+      randomAccessFile.setLength(capacity);
+      buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    } catch (final IOException e) {
+      randomAccessFile.close();
+      throw e;
+    }
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(0, MAGIC);
+    buffer.putInt(4, VERSION);
+    buffer.putInt(FRAME_COUNT_OFFSET, 0);
+  }
+
+  /**
+   * Records a Camera2 frame. The positions of the planes are left unchanged.
+   *
+   * @param timestampNanos The time the frame was captured, only compared with the other frames.
+   * @param sensorOrientation The rotation of the camera sensor relative to the device, in degrees.
+   * @return False if the frame did not fit, or the recorder is closed.
+   */
+  public synchronized boolean recordYUV420(
+      final ByteBuffer yBuffer,
+      final ByteBuffer uBuffer,
+      final ByteBuffer vBuffer,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int sensorOrientation,
+      final long timestampNanos) {
+    final int yLength = yBuffer.remaining();
+    final int uLength = uBuffer.remaining();
+    final int vLength = vBuffer.remaining();
+    if (!reserve((long) yLength + uLength + vLength)) {
+      return false;
+    }
+    final int start = position;
+    putFrameHeader(
+        FORMAT_YUV_420_888,
+        timestampNanos,
+        width,
+        height,
+        sensorOrientation,
+        yRowStride,
+        uvRowStride,
+        uvPixelStride,
+        yLength,
+        uLength,
+        vLength);
+    putPlane(yBuffer);
+    putPlane(uBuffer);
+    putPlane(vBuffer);
+    commit(start);
+    return true;
+  }
+
+  /**
+   * Records a legacy camera frame.
+   *
+   * @param timestampNanos The time the frame was captured, only compared with the other frames.
+   * @param sensorOrientation The rotation of the camera sensor relative to the device, in degrees.
+   * @return False if the frame did not fit, or the recorder is closed.
+   */
+  public synchronized boolean recordYUV420SP(
+      final byte[] input,
+      final int width,
+      final int height,
+      final int sensorOrientation,
+      final long timestampNanos) {
+    if (!reserve(input.length)) {
+      return false;
+    }
+    final int start = position;
+    putFrameHeader(
+        FORMAT_NV21,
+        timestampNanos,
+        width,
+        height,
+        sensorOrientation,
+        width,
+        width,
+        2,
+        input.length,
+        0,
+        0);
+    buffer.position(position);
+    buffer.put(input);
+    position += input.length;
+    commit(start);
+    return true;
+  }
+
+  public synchronized int getFrameCount() {
+    return frameCount;
+  }
+
+  /**
+   * Flushes the recorded frames to the file, and shrinks it to them. Frames recorded afterwards are
+   * ignored.
+   */
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      buffer.force();
+      // The mapping stays until the buffer is collected, but nothing touches the cut pages.
+      randomAccessFile.setLength(position);
+    } finally {
+      randomAccessFile.close();
+    }
+    LOGGER.i("Recorded %d frames, %d bytes, to %s", frameCount, position, file);
+  }
+
+  private boolean reserve(final long planeBytes) {
+    if (closed || full) {
+      return false;
+    }
+    if (position + FRAME_HEADER_BYTES + planeBytes > buffer.capacity()) {
+      full = true;
+      LOGGER.w("Capture file full after %d frames", frameCount);
+      return false;
+    }
+    return true;
+  }
+
+  private void putFrameHeader(
+      final int format,
+      final long timestampNanos,
+      final int width,
+      final int height,
+      final int sensorOrientation,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int yLength,
+      final int uLength,
+      final int vLength) {
+    // The magic number goes in once the frame is complete, see commit().
+    buffer.putInt(position, 0);
+    buffer.putInt(position + 4, format);
+    buffer.putLong(position + 8, timestampNanos);
+    buffer.putInt(position + 16, width);
+    buffer.putInt(position + 20, height);
+    buffer.putInt(position + 24, sensorOrientation);
+    buffer.putInt(position + 28, yRowStride);
+    buffer.putInt(position + 32, uvRowStride);
+    buffer.putInt(position + 36, uvPixelStride);
+    buffer.putInt(position + 40, yLength);
+    buffer.putInt(position + 44, uLength);
+    buffer.putInt(position + 48, vLength);
+    position += FRAME_HEADER_BYTES;
+  }
+
+  private void putPlane(final ByteBuffer plane) {
+    final int planePosition = plane.position();
+    final int length = plane.remaining();
+    buffer.position(position);
+    buffer.put(plane);
+    plane.position(planePosition);
+    position += length;
+  }
+
+  private void commit(final int start) {
+    buffer.putInt(start, FRAME_MAGIC);
+    buffer.putInt(FRAME_COUNT_OFFSET, ++frameCount);
+  }
+}
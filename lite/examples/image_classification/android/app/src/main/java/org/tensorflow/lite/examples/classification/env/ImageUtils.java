@@ -17,9 +17,12 @@ package org.tensorflow.lite.examples.classification.env;
 
 import android.graphics.Bitmap;
 import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.os.Environment;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
 
 /** Utility class for manipulating images. */
 public class ImageUtils {
@@ -30,6 +33,55 @@ public class ImageUtils {
   @SuppressWarnings("unused")
   private static final Logger LOGGER = new Logger();
 
+  /** The implementation used to convert YUV samples to ARGB pixels. */
+  public enum YuvConversionMode {
+    /** Evaluates the fixed point conversion formula for every pixel. */
+    ARITHMETIC,
+    /** Sums precomputed per-channel contributions and clamps them through a lookup table. */
+    LOOKUP_TABLE
+  }
+
+  private static volatile YuvConversionMode yuvConversionMode = YuvConversionMode.LOOKUP_TABLE;
+
+  // Per-channel contributions of the fixed point conversion in YUV2RGB, indexed by sample value.
+  private static final int[] Y_TABLE = new int[256];
+  private static final int[] RV_TABLE = new int[256];
+  private static final int[] GU_TABLE = new int[256];
+  private static final int[] GV_TABLE = new int[256];
+  private static final int[] BU_TABLE = new int[256];
+
+  // Maps a channel sum shifted down by 10 bits to its saturated 8 bit value. The sums range from
+  // -264448 to 547270, so the shifted values fit in [-CLAMP_OFFSET, CLAMP_TABLE.length -
+  // CLAMP_OFFSET).
+  private static final int CLAMP_OFFSET = 384;
+  private static final int[] CLAMP_TABLE = new int[1024];
+
+  // Side of the square tiles rotate() works in. 32 x 32 ints cover 4KB of input and of output.
+  private static final int ROTATION_TILE_SIZE = 32;
+
+  static {
+    for (int i = 0; i < 256; ++i) {
+      Y_TABLE[i] = 1192 * ((i - 16) < 0 ? 0 : (i - 16));
+      RV_TABLE[i] = 1634 * (i - 128);
+      GU_TABLE[i] = -400 * (i - 128);
+      GV_TABLE[i] = -833 * (i - 128);
+      BU_TABLE[i] = 2066 * (i - 128);
+    }
+    for (int i = 0; i < CLAMP_TABLE.length; ++i) {
+      final int value = i - CLAMP_OFFSET;
+      CLAMP_TABLE[i] = value > 255 ? 255 : (value < 0 ? 0 : value);
+    }
+  }
+
+  /** Selects the implementation used by the YUV to ARGB conversion methods. */
+  public static void setYuvConversionMode(final YuvConversionMode mode) {
+    yuvConversionMode = mode;
+  }
+
+  public static YuvConversionMode getYuvConversionMode() {
+    return yuvConversionMode;
+  }
+
   /**
    * Utility method to compute the allocated size in bytes of a YUV420SP image of the given
    * dimensions.
@@ -86,6 +138,11 @@ public class ImageUtils {
   }
 
   public static void convertYUV420SPToARGB8888(byte[] input, int width, int height, int[] output) {
+    if (yuvConversionMode == YuvConversionMode.LOOKUP_TABLE) {
+      convertYUV420SPToARGB8888Table(input, width, height, output);
+      return;
+    }
+
     final int frameSize = width * height;
     for (int j = 0, yp = 0; j < height; j++) {
       int uvp = frameSize + (j >> 1) * width;
@@ -104,6 +161,171 @@ public class ImageUtils {
     }
   }
 
+  private static void convertYUV420SPToARGB8888Table(
+      byte[] input, int width, int height, int[] output) {
+    final int frameSize = width * height;
+    for (int j = 0, yp = 0; j < height; j++) {
+      int uvp = frameSize + (j >> 1) * width;
+      int rv = 0;
+      int guv = 0;
+      int bu = 0;
+
+      for (int i = 0; i < width; i++, yp++) {
+        if ((i & 1) == 0) {
+          final int v = 0xff & input[uvp++];
+          final int u = 0xff & input[uvp++];
+          rv = RV_TABLE[v];
+          guv = GU_TABLE[u] + GV_TABLE[v];
+          bu = BU_TABLE[u];
+        }
+
+        output[yp] = YUV2RGBTable(Y_TABLE[0xff & input[yp]], rv, guv, bu);
+      }
+    }
+  }
+
+  /**
+   * Converts only {@code region} of a YUV420SP frame, sampling every {@code step}th pixel of every
+   * {@code step}th row. The result is stored densely in {@code output}, with {@code
+   * getSampledLength(region.width(), step)} pixels per row.
+   */
+  public static void convertYUV420SPToARGB8888(
+      byte[] input, int width, int height, Rect region, int step, int[] output) {
+    final boolean useTable = yuvConversionMode == YuvConversionMode.LOOKUP_TABLE;
+    final int frameSize = width * height;
+    final int outWidth = getSampledLength(region.width(), step);
+    final int outHeight = getSampledLength(region.height(), step);
+    int op = 0;
+    for (int r = 0; r < outHeight; r++) {
+      final int j = region.top + r * step;
+      final int pY = j * width;
+      final int pUV = frameSize + (j >> 1) * width;
+
+      for (int c = 0, i = region.left; c < outWidth; c++, i += step) {
+        final int uvp = pUV + (i & ~1);
+        final int y = 0xff & input[pY + i];
+        final int v = 0xff & input[uvp];
+        final int u = 0xff & input[uvp + 1];
+
+        output[op++] = useTable ? yuvToArgb(y, u, v) : YUV2RGB(y, u, v);
+      }
+    }
+  }
+
+  /**
+   * Converts rows of a frame whose chroma samples are interleaved, i.e. NV12 or NV21 exposed as
+   * YUV_420_888 with a chroma pixel stride of 2. Works on 2x2 blocks, so the chroma contributions
+   * are looked up once for every four output pixels. {@code rowStart} must be even.
+   */
+  private static void convertYUV420SemiPlanarToARGB8888Table(
+      byte[] yData,
+      byte[] uData,
+      byte[] vData,
+      int width,
+      int rowStart,
+      int rowEnd,
+      int yRowStride,
+      int uvRowStride,
+      int[] out) {
+    final int evenWidth = width & ~1;
+    for (int j = rowStart; j < rowEnd; j += 2) {
+      // The last row of a frame with an odd height has no partner.
+      final boolean hasRowPair = j + 1 < rowEnd;
+      final int pY0 = yRowStride * j;
+      final int pY1 = pY0 + yRowStride;
+      final int o0 = width * j;
+      final int o1 = o0 + width;
+      int pUV = uvRowStride * (j >> 1);
+
+      int i = 0;
+      for (; i < evenWidth; i += 2, pUV += 2) {
+        final int u = 0xff & uData[pUV];
+        final int v = 0xff & vData[pUV];
+        final int rv = RV_TABLE[v];
+        final int guv = GU_TABLE[u] + GV_TABLE[v];
+        final int bu = BU_TABLE[u];
+
+        out[o0 + i] = YUV2RGBTable(Y_TABLE[0xff & yData[pY0 + i]], rv, guv, bu);
+        out[o0 + i + 1] = YUV2RGBTable(Y_TABLE[0xff & yData[pY0 + i + 1]], rv, guv, bu);
+        if (hasRowPair) {
+          out[o1 + i] = YUV2RGBTable(Y_TABLE[0xff & yData[pY1 + i]], rv, guv, bu);
+          out[o1 + i + 1] = YUV2RGBTable(Y_TABLE[0xff & yData[pY1 + i + 1]], rv, guv, bu);
+        }
+      }
+      if (i < width) {
+        // The last column of a frame with an odd width.
+        final int u = 0xff & uData[pUV];
+        final int v = 0xff & vData[pUV];
+        out[o0 + i] = yuvToArgb(0xff & yData[pY0 + i], u, v);
+        if (hasRowPair) {
+          out[o1 + i] = yuvToArgb(0xff & yData[pY1 + i], u, v);
+        }
+      }
+    }
+  }
+
+  /** {@code ByteBuffer} variant of the 2x2 block conversion of interleaved chroma frames. */
+  private static void convertYUV420SemiPlanarToARGB8888Table(
+      ByteBuffer yBuffer,
+      ByteBuffer uBuffer,
+      ByteBuffer vBuffer,
+      int width,
+      int rowStart,
+      int rowEnd,
+      int yRowStride,
+      int uvRowStride,
+      int[] out) {
+    final int evenWidth = width & ~1;
+    for (int j = rowStart; j < rowEnd; j += 2) {
+      final boolean hasRowPair = j + 1 < rowEnd;
+      final int pY0 = yRowStride * j;
+      final int pY1 = pY0 + yRowStride;
+      final int o0 = width * j;
+      final int o1 = o0 + width;
+      int pUV = uvRowStride * (j >> 1);
+
+      int i = 0;
+      for (; i < evenWidth; i += 2, pUV += 2) {
+        final int u = 0xff & uBuffer.get(pUV);
+        final int v = 0xff & vBuffer.get(pUV);
+        final int rv = RV_TABLE[v];
+        final int guv = GU_TABLE[u] + GV_TABLE[v];
+        final int bu = BU_TABLE[u];
+
+        out[o0 + i] = YUV2RGBTable(Y_TABLE[0xff & yBuffer.get(pY0 + i)], rv, guv, bu);
+        out[o0 + i + 1] = YUV2RGBTable(Y_TABLE[0xff & yBuffer.get(pY0 + i + 1)], rv, guv, bu);
+        if (hasRowPair) {
+          out[o1 + i] = YUV2RGBTable(Y_TABLE[0xff & yBuffer.get(pY1 + i)], rv, guv, bu);
+          out[o1 + i + 1] = YUV2RGBTable(Y_TABLE[0xff & yBuffer.get(pY1 + i + 1)], rv, guv, bu);
+        }
+      }
+      if (i < width) {
+        final int u = 0xff & uBuffer.get(pUV);
+        final int v = 0xff & vBuffer.get(pUV);
+        out[o0 + i] = yuvToArgb(0xff & yBuffer.get(pY0 + i), u, v);
+        if (hasRowPair) {
+          out[o1 + i] = yuvToArgb(0xff & yBuffer.get(pY1 + i), u, v);
+        }
+      }
+    }
+  }
+
+  /** Converts a single YUV sample to an ARGB pixel. */
+  static int yuvToArgb(int y, int u, int v) {
+    return YUV2RGBTable(Y_TABLE[y], RV_TABLE[v], GU_TABLE[u] + GV_TABLE[v], BU_TABLE[u]);
+  }
+
+  /**
+   * Table driven equivalent of {@link #YUV2RGB(int, int, int)}. Takes the scaled luma and the
+   * chroma contributions of each channel, and produces bit-identical output.
+   */
+  private static int YUV2RGBTable(int y1192, int rv, int guv, int bu) {
+    return 0xff000000
+        | (CLAMP_TABLE[((y1192 + rv) >> 10) + CLAMP_OFFSET] << 16)
+        | (CLAMP_TABLE[((y1192 + guv) >> 10) + CLAMP_OFFSET] << 8)
+        | CLAMP_TABLE[((y1192 + bu) >> 10) + CLAMP_OFFSET];
+  }
+
   private static int YUV2RGB(int y, int u, int v) {
     // Adjust and check YUV values
     y = (y - 16) < 0 ? 0 : (y - 16);
@@ -138,8 +360,50 @@ public class ImageUtils {
       int uvRowStride,
       int uvPixelStride,
       int[] out) {
-    int yp = 0;
-    for (int j = 0; j < height; j++) {
+    convertYUV420ToARGB8888Rows(
+        yData, uData, vData, width, 0, height, yRowStride, uvRowStride, uvPixelStride, out);
+  }
+
+  /**
+   * Converts the rows in [rowStart, rowEnd) of a YUV420 frame, writing them to the same positions
+   * of the output that a whole-frame conversion would. Disjoint row ranges may be converted
+   * concurrently.
+   */
+  static void convertYUV420ToARGB8888Rows(
+      byte[] yData,
+      byte[] uData,
+      byte[] vData,
+      int width,
+      int rowStart,
+      int rowEnd,
+      int yRowStride,
+      int uvRowStride,
+      int uvPixelStride,
+      int[] out) {
+    if (yuvConversionMode == YuvConversionMode.LOOKUP_TABLE
+        && uvPixelStride == 2
+        && (rowStart & 1) == 0) {
+      convertYUV420SemiPlanarToARGB8888Table(
+          yData, uData, vData, width, rowStart, rowEnd, yRowStride, uvRowStride, out);
+      return;
+    }
+    if (yuvConversionMode == YuvConversionMode.LOOKUP_TABLE) {
+      convertYUV420ToARGB8888Table(
+          yData,
+          uData,
+          vData,
+          width,
+          rowStart,
+          rowEnd,
+          yRowStride,
+          uvRowStride,
+          uvPixelStride,
+          out);
+      return;
+    }
+
+    int yp = rowStart * width;
+    for (int j = rowStart; j < rowEnd; j++) {
       int pY = yRowStride * j;
       int pUV = uvRowStride * (j >> 1);
 
@@ -151,6 +415,394 @@ public class ImageUtils {
     }
   }
 
+  /**
+   * Converts a YUV420 frame whose planes are read in place from {@code ByteBuffer}s, such as the
+   * ones returned by {@code Image.Plane.getBuffer()}, honoring their row and pixel strides. The
+   * buffers are accessed with absolute reads, so their positions are left untouched.
+   */
+  public static void convertYUV420ToARGB8888(
+      ByteBuffer yBuffer,
+      ByteBuffer uBuffer,
+      ByteBuffer vBuffer,
+      int width,
+      int height,
+      int yRowStride,
+      int uvRowStride,
+      int uvPixelStride,
+      int[] out) {
+    convertYUV420ToARGB8888Rows(
+        yBuffer, uBuffer, vBuffer, width, 0, height, yRowStride, uvRowStride, uvPixelStride, out);
+  }
+
+  /** {@code ByteBuffer} variant of the row range conversion. */
+  static void convertYUV420ToARGB8888Rows(
+      ByteBuffer yBuffer,
+      ByteBuffer uBuffer,
+      ByteBuffer vBuffer,
+      int width,
+      int rowStart,
+      int rowEnd,
+      int yRowStride,
+      int uvRowStride,
+      int uvPixelStride,
+      int[] out) {
+    final boolean useTable = yuvConversionMode == YuvConversionMode.LOOKUP_TABLE;
+    if (useTable && uvPixelStride == 2 && (rowStart & 1) == 0) {
+      convertYUV420SemiPlanarToARGB8888Table(
+          yBuffer, uBuffer, vBuffer, width, rowStart, rowEnd, yRowStride, uvRowStride, out);
+      return;
+    }
+
+    int yp = rowStart * width;
+    for (int j = rowStart; j < rowEnd; j++) {
+      int pY = yRowStride * j;
+      int pUV = uvRowStride * (j >> 1);
+
+      for (int i = 0; i < width; i++) {
+        int uv_offset = pUV + (i >> 1) * uvPixelStride;
+        final int y = 0xff & yBuffer.get(pY + i);
+        final int u = 0xff & uBuffer.get(uv_offset);
+        final int v = 0xff & vBuffer.get(uv_offset);
+
+        out[yp++] = useTable ? yuvToArgb(y, u, v) : YUV2RGB(y, u, v);
+      }
+    }
+  }
+
+  /**
+   * Converts only {@code region} of a YUV420 frame read in place from {@code ByteBuffer}s, sampling
+   * every {@code step}th pixel of every {@code step}th row. The result is stored densely in {@code
+   * out}, with {@code getSampledLength(region.width(), step)} pixels per row.
+   */
+  public static void convertYUV420ToARGB8888(
+      ByteBuffer yBuffer,
+      ByteBuffer uBuffer,
+      ByteBuffer vBuffer,
+      int yRowStride,
+      int uvRowStride,
+      int uvPixelStride,
+      Rect region,
+      int step,
+      int[] out) {
+    convertYUV420ToARGB8888Region(
+        yBuffer,
+        uBuffer,
+        vBuffer,
+        region.left,
+        region.top,
+        step,
+        getSampledLength(region.width(), step),
+        0,
+        getSampledLength(region.height(), step),
+        yRowStride,
+        uvRowStride,
+        uvPixelStride,
+        out);
+  }
+
+  /**
+   * Converts the output rows in [outRowStart, outRowEnd) of a region conversion. Output row r
+   * samples frame row {@code top + r * step}.
+   */
+  static void convertYUV420ToARGB8888Region(
+      ByteBuffer yBuffer,
+      ByteBuffer uBuffer,
+      ByteBuffer vBuffer,
+      int left,
+      int top,
+      int step,
+      int outWidth,
+      int outRowStart,
+      int outRowEnd,
+      int yRowStride,
+      int uvRowStride,
+      int uvPixelStride,
+      int[] out) {
+    final boolean useTable = yuvConversionMode == YuvConversionMode.LOOKUP_TABLE;
+    int op = outRowStart * outWidth;
+    for (int r = outRowStart; r < outRowEnd; r++) {
+      final int j = top + r * step;
+      final int pY = yRowStride * j;
+      final int pUV = uvRowStride * (j >> 1);
+
+      for (int c = 0, i = left; c < outWidth; c++, i += step) {
+        final int uv_offset = pUV + (i >> 1) * uvPixelStride;
+        final int y = 0xff & yBuffer.get(pY + i);
+        final int u = 0xff & uBuffer.get(uv_offset);
+        final int v = 0xff & vBuffer.get(uv_offset);
+
+        out[op++] = useTable ? yuvToArgb(y, u, v) : YUV2RGB(y, u, v);
+      }
+    }
+  }
+
+  /** Returns the number of samples taken from {@code length} pixels every {@code step} pixels. */
+  public static int getSampledLength(final int length, final int step) {
+    return (length + step - 1) / step;
+  }
+
+  /**
+   * Returns the part of a frame that ends up in the crop produced by {@code frameToCropTransform}.
+   * The top left corner is rounded down to even coordinates so that the region starts on a chroma
+   * sample.
+   */
+  public static Rect getCropSourceRegion(
+      final Matrix frameToCropTransform,
+      final int frameWidth,
+      final int frameHeight,
+      final int cropWidth,
+      final int cropHeight) {
+    final Matrix cropToFrameTransform = new Matrix();
+    frameToCropTransform.invert(cropToFrameTransform);
+    final RectF bounds = new RectF(0, 0, cropWidth, cropHeight);
+    cropToFrameTransform.mapRect(bounds);
+
+    return new Rect(
+        Math.max(0, (int) Math.floor(bounds.left)) & ~1,
+        Math.max(0, (int) Math.floor(bounds.top)) & ~1,
+        Math.min(frameWidth, (int) Math.ceil(bounds.right)),
+        Math.min(frameHeight, (int) Math.ceil(bounds.bottom)));
+  }
+
+  /**
+   * Returns the largest integer step between frame samples that still leaves at least one sample
+   * per crop pixel along both axes, i.e. how many times {@code frameToCropTransform} downsamples.
+   */
+  public static int getSamplingStep(final Matrix frameToCropTransform) {
+    final float[] values = new float[9];
+    frameToCropTransform.getValues(values);
+    // Length of the unit vectors of the frame axes once mapped into the crop.
+    final double scaleX = Math.hypot(values[Matrix.MSCALE_X], values[Matrix.MSKEW_Y]);
+    final double scaleY = Math.hypot(values[Matrix.MSKEW_X], values[Matrix.MSCALE_Y]);
+    return Math.max(1, (int) (1.0 / Math.max(scaleX, scaleY)));
+  }
+
+  /**
+   * Returns the transform from the output of a region conversion into the crop. It places every
+   * converted pixel at the center of the frame pixel it was sampled from, and then applies {@code
+   * frameToCropTransform}.
+   */
+  public static Matrix getRegionToCropTransform(
+      final Rect region, final int step, final Matrix frameToCropTransform) {
+    final Matrix matrix = new Matrix();
+    matrix.setScale(step, step);
+    matrix.postTranslate(region.left + (1 - step) / 2.0f, region.top + (1 - step) / 2.0f);
+    matrix.postConcat(frameToCropTransform);
+    return matrix;
+  }
+
+  /**
+   * Returns the clockwise rotation of {@code transform} in degrees if it is a multiple of 90, i.e.
+   * 0, 90, 180 or 270, and -1 if the transform skews, mirrors or rotates by any other angle.
+   * Scaling and translation are ignored, so every transform from {@link #getTransformationMatrix}
+   * has one.
+   */
+  public static int getRightAngleRotation(final Matrix transform) {
+    final float[] values = new float[9];
+    transform.getValues(values);
+    final float scaleX = values[Matrix.MSCALE_X];
+    final float skewX = values[Matrix.MSKEW_X];
+    final float skewY = values[Matrix.MSKEW_Y];
+    final float scaleY = values[Matrix.MSCALE_Y];
+    // postRotate() leaves rounding errors where the sine or cosine should be 0.
+    final float epsilon = 1e-5f * (Math.abs(scaleX) + Math.abs(skewX));
+    if (Math.abs(skewX) <= epsilon && Math.abs(skewY) <= epsilon) {
+      if (scaleX > 0 && scaleY > 0) {
+        return 0;
+      } else if (scaleX < 0 && scaleY < 0) {
+        return 180;
+      }
+    } else if (Math.abs(scaleX) <= epsilon && Math.abs(scaleY) <= epsilon) {
+      if (skewX < 0 && skewY > 0) {
+        return 90;
+      } else if (skewX > 0 && skewY < 0) {
+        return 270;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the transform from frame coordinates into the output of {@link #rotate}.
+   *
+   * @param width Width of the frame.
+   * @param height Height of the frame.
+   * @param rotation Clockwise rotation in degrees, a multiple of 90.
+   */
+  public static Matrix getRotationTransform(final int width, final int height, final int rotation) {
+    final Matrix matrix = new Matrix();
+    switch (normalizeRotation(rotation)) {
+      case 90:
+        matrix.setRotate(90);
+        matrix.postTranslate(height, 0);
+        break;
+      case 180:
+        matrix.setRotate(180);
+        matrix.postTranslate(width, height);
+        break;
+      case 270:
+        matrix.setRotate(270);
+        matrix.postTranslate(0, width);
+        break;
+      default:
+        break;
+    }
+    return matrix;
+  }
+
+  /**
+   * Rotates ARGB pixels clockwise by a multiple of 90 degrees. Rotations by 90 and 270 degrees are
+   * done in square tiles, so that the rows being written stay in the cache while the input is read
+   * row by row.
+   *
+   * @param input The frame, width * height pixels in row major order.
+   * @param width Width of the frame.
+   * @param height Height of the frame.
+   * @param rotation Clockwise rotation in degrees, a multiple of 90.
+   * @param output Receives the rotated frame, which is height pixels wide for rotations by 90 and
+   *     270 degrees. Must not be the input array.
+   */
+  public static void rotate(
+      final int[] input,
+      final int width,
+      final int height,
+      final int rotation,
+      final int[] output) {
+    final int size = width * height;
+    switch (normalizeRotation(rotation)) {
+      case 0:
+        System.arraycopy(input, 0, output, 0, size);
+        break;
+      case 180:
+        for (int i = 0, o = size - 1; i < size; i++, o--) {
+          output[o] = input[i];
+        }
+        break;
+      case 90:
+        // (x, y) moves to (height - 1 - y, x).
+        for (int y0 = 0; y0 < height; y0 += ROTATION_TILE_SIZE) {
+          final int y1 = Math.min(y0 + ROTATION_TILE_SIZE, height);
+          for (int x0 = 0; x0 < width; x0 += ROTATION_TILE_SIZE) {
+            final int x1 = Math.min(x0 + ROTATION_TILE_SIZE, width);
+            for (int y = y0; y < y1; y++) {
+              for (int x = x0, i = y * width + x0, o = x0 * height + height - 1 - y;
+                  x < x1;
+                  x++, i++, o += height) {
+                output[o] = input[i];
+              }
+            }
+          }
+        }
+        break;
+      case 270:
+        // (x, y) moves to (y, width - 1 - x).
+        for (int y0 = 0; y0 < height; y0 += ROTATION_TILE_SIZE) {
+          final int y1 = Math.min(y0 + ROTATION_TILE_SIZE, height);
+          for (int x0 = 0; x0 < width; x0 += ROTATION_TILE_SIZE) {
+            final int x1 = Math.min(x0 + ROTATION_TILE_SIZE, width);
+            for (int y = y0; y < y1; y++) {
+              for (int x = x0, i = y * width + x0, o = (width - 1 - x0) * height + y;
+                  x < x1;
+                  x++, i++, o -= height) {
+                output[o] = input[i];
+              }
+            }
+          }
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("Rotation must be a multiple of 90: " + rotation);
+    }
+  }
+
+  /**
+   * Rotates single byte pixels, such as a luminance plane, clockwise by a multiple of 90 degrees.
+   * See {@link #rotate(int[], int, int, int, int[])}.
+   */
+  public static void rotate(
+      final byte[] input,
+      final int width,
+      final int height,
+      final int rotation,
+      final byte[] output) {
+    final int size = width * height;
+    switch (normalizeRotation(rotation)) {
+      case 0:
+        System.arraycopy(input, 0, output, 0, size);
+        break;
+      case 180:
+        for (int i = 0, o = size - 1; i < size; i++, o--) {
+          output[o] = input[i];
+        }
+        break;
+      case 90:
+        for (int y0 = 0; y0 < height; y0 += ROTATION_TILE_SIZE) {
+          final int y1 = Math.min(y0 + ROTATION_TILE_SIZE, height);
+          for (int x0 = 0; x0 < width; x0 += ROTATION_TILE_SIZE) {
+            final int x1 = Math.min(x0 + ROTATION_TILE_SIZE, width);
+            for (int y = y0; y < y1; y++) {
+              for (int x = x0, i = y * width + x0, o = x0 * height + height - 1 - y;
+                  x < x1;
+                  x++, i++, o += height) {
+                output[o] = input[i];
+              }
+            }
+          }
+        }
+        break;
+      case 270:
+        for (int y0 = 0; y0 < height; y0 += ROTATION_TILE_SIZE) {
+          final int y1 = Math.min(y0 + ROTATION_TILE_SIZE, height);
+          for (int x0 = 0; x0 < width; x0 += ROTATION_TILE_SIZE) {
+            final int x1 = Math.min(x0 + ROTATION_TILE_SIZE, width);
+            for (int y = y0; y < y1; y++) {
+              for (int x = x0, i = y * width + x0, o = (width - 1 - x0) * height + y;
+                  x < x1;
+                  x++, i++, o -= height) {
+                output[o] = input[i];
+              }
+            }
+          }
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("Rotation must be a multiple of 90: " + rotation);
+    }
+  }
+
+  // Maps rotations such as -90 or 450 into [0, 360).
+  private static int normalizeRotation(final int rotation) {
+    return ((rotation % 360) + 360) % 360;
+  }
+
+  private static void convertYUV420ToARGB8888Table(
+      byte[] yData,
+      byte[] uData,
+      byte[] vData,
+      int width,
+      int rowStart,
+      int rowEnd,
+      int yRowStride,
+      int uvRowStride,
+      int uvPixelStride,
+      int[] out) {
+    int yp = rowStart * width;
+    for (int j = rowStart; j < rowEnd; j++) {
+      int pY = yRowStride * j;
+      int pUV = uvRowStride * (j >> 1);
+
+      for (int i = 0; i < width; i++) {
+        int uv_offset = pUV + (i >> 1) * uvPixelStride;
+        final int u = 0xff & uData[uv_offset];
+        final int v = 0xff & vData[uv_offset];
+
+        out[yp++] =
+            YUV2RGBTable(
+                Y_TABLE[0xff & yData[pY + i]], RV_TABLE[v], GU_TABLE[u] + GV_TABLE[v], BU_TABLE[u]);
+      }
+    }
+  }
+
   /**
    * Returns a transformation matrix from one reference frame into another. Handles cropping (if
    * maintaining aspect ratio is desired) and rotation.
@@ -0,0 +1,226 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.classification.env;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records trace sections in process, so that traces can be taken on devices without systrace. Use
+ * it in place of {@link Trace}: sections always go to systrace, and while {@link #start started}
+ * they are also kept with their thread in a preallocated ring buffer, which {@link
+ * #exportChromeTrace} writes as Chrome trace events for chrome://tracing or Perfetto.
+ *
+ * <p>Recording neither locks nor allocates. When the buffer is full, the oldest events are
+ * overwritten.
+ */
+public final class Tracer {
+  private static final Logger LOGGER = new Logger();
+
+  private static final byte PHASE_BEGIN = 'B';
+  private static final byte PHASE_END = 'E';
+
+  /** Events stored back to back, in slots indexed by their sequence number modulo capacity. */
+  private static final class Buffer {
+    final int mask;
+    final String[] names;
+    final long[] timestampsNanos;
+    final int[] threadIds;
+    final byte[] phases;
+    // Sequence number + 1 of the event in each slot, or 0 while the slot is written.
+    final AtomicLongArray written;
+    final AtomicLong next = new AtomicLong();
+
+    Buffer(final int capacity) {
+      mask = capacity - 1;
+      names = new String[capacity];
+      timestampsNanos = new long[capacity];
+      threadIds = new int[capacity];
+      phases = new byte[capacity];
+      written = new AtomicLongArray(capacity);
+    }
+  }
+
+  // The buffer events are recorded into while started, and the last one once stopped.
+  private static volatile Buffer buffer;
+  private static Buffer lastBuffer;
+
+  private static final Map<Integer, String> threadNames = new ConcurrentHashMap<>();
+
+  // Looking up the thread id once per thread also notes the thread's name for the export.
+  private static final ThreadLocal<Integer> threadId =
+      new ThreadLocal<Integer>() {
+        @Override
+        protected Integer initialValue() {
+          final int tid = Process.myTid();
+          threadNames.put(tid, Thread.currentThread().getName());
+          return tid;
+        }
+      };
+
+  private Tracer() {}
+
+  /**
+   * Starts keeping sections, discarding the ones kept before.
+   *
+   * @param capacity The number of events to keep, rounded up to a power of two. Every section takes
+   *     two.
+   */
+  public static synchronized void start(final int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("The trace needs room for at least one event.");
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    buffer = new Buffer(size);
+    lastBuffer = null;
+  }
+
+  /** Stops keeping sections. The ones kept so far can still be exported. */
+  public static synchronized void stop() {
+    final Buffer stopped = buffer;
+    buffer = null;
+    lastBuffer = stopped != null ? stopped : lastBuffer;
+  }
+
+  public static boolean isStarted() {
+    return buffer != null;
+  }
+
+  /** Begins a section on the calling thread, see {@link Trace#beginSection}. */
+  public static void beginSection(final String name) {
+    Trace.beginSection(name);
+    record(PHASE_BEGIN, name);
+  }
+
+  /** Ends the innermost section begun by the calling thread. */
+  public static void endSection() {
+    record(PHASE_END, null);
+    Trace.endSection();
+  }
+
+  private static void record(final byte phase, final String name) {
+    final Buffer buffer = Tracer.buffer;
+    if (buffer == null) {
+      return;
+    }
+    final long timestamp = SystemClock.elapsedRealtimeNanos();
+    final int tid = threadId.get();
+    final long sequence = buffer.next.getAndIncrement();
+    final int slot = (int) (sequence & buffer.mask);
+    buffer.written.set(slot, 0);
+    buffer.names[slot] = name;
+    buffer.timestampsNanos[slot] = timestamp;
+    buffer.threadIds[slot] = tid;
+    buffer.phases[slot] = phase;
+    buffer.written.set(slot, sequence + 1);
+  }
+
+  /**
+   * Writes the kept sections to {@code file} in the Chrome trace event format. Sections still open
+   * are left open; the ends of sections whose beginning was overwritten are left out.
+   *
+   * @return The number of events written.
+   */
+  public static int exportChromeTrace(final File file) throws IOException {
+    final Buffer buffer;
+    synchronized (Tracer.class) {
+      buffer = Tracer.buffer != null ? Tracer.buffer : lastBuffer;
+    }
+    int count = 0;
+    try (Writer writer = new BufferedWriter(new FileWriter(file))) {
+      final int pid = Process.myPid();
+      writer.write("{\"traceEvents\":[");
+      boolean first = true;
+      for (final Map.Entry<Integer, String> thread : threadNames.entrySet()) {
+        writer.write(first ? "\n" : ",\n");
+        first = false;
+        writer.write(
+            String.format(
+                "{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":%d,\"tid\":%d,"
+                    + "\"args\":{\"name\":\"%s\"}}",
+                pid, thread.getKey(), escape(thread.getValue())));
+      }
+      if (buffer != null) {
+        // Open sections per thread, to drop ends without a beginning.
+        final Map<Integer, Integer> depths = new HashMap<>();
+        final long end = buffer.next.get();
+        for (long sequence = Math.max(0, end - buffer.mask - 1); sequence < end; ++sequence) {
+          final int slot = (int) (sequence & buffer.mask);
+          if (buffer.written.get(slot) != sequence + 1) {
+            continue;
+          }
+          final String name = buffer.names[slot];
+          final long timestamp = buffer.timestampsNanos[slot];
+          final int tid = buffer.threadIds[slot];
+          final byte phase = buffer.phases[slot];
+          if (buffer.written.get(slot) != sequence + 1) {
+            // Overwritten while reading.
+            continue;
+          }
+          final Integer depth = depths.get(tid);
+          final int open = depth != null ? depth : 0;
+          if (phase == PHASE_END && open == 0) {
+            continue;
+          }
+          depths.put(tid, phase == PHASE_BEGIN ? open + 1 : open - 1);
+          writer.write(first ? "\n" : ",\n");
+          first = false;
+          writer.write(
+              String.format(
+                  "{\"ph\":\"%c\",\"ts\":%d.%03d,\"pid\":%d,\"tid\":%d",
+                  (char) phase, timestamp / 1000, timestamp % 1000, pid, tid));
+          if (name != null) {
+            writer.write(",\"name\":\"" + escape(name) + "\"");
+          }
+          writer.write("}");
+          ++count;
+        }
+      }
+      writer.write("\n],\"displayTimeUnit\":\"ms\"}\n");
+    }
+    LOGGER.i("Exported %d trace events to %s", count, file);
+    return count;
+  }
+
+  private static String escape(final String value) {
+    final StringBuilder escaped = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); ++i) {
+      final char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        escaped.append('\\').append(c);
+      } else if (c < 0x20) {
+        escaped.append(String.format("\\u%04x", (int) c));
+      } else {
+        escaped.append(c);
+      }
+    }
+    return escaped.toString();
+  }
+}
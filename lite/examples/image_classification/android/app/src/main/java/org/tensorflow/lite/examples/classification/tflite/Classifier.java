@@ -16,29 +16,26 @@ limitations under the License.
 package org.tensorflow.lite.examples.classification.tflite;
 
 import android.app.Activity;
-import android.content.res.AssetFileDescriptor;
 import android.graphics.Bitmap;
 import android.graphics.RectF;
 import android.os.SystemClock;
-import android.os.Trace;
-import java.io.BufferedReader;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
-import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 import org.tensorflow.lite.Interpreter;
 import org.tensorflow.lite.examples.classification.env.Logger;
+import org.tensorflow.lite.examples.classification.env.MetricsRegistry;
+import org.tensorflow.lite.examples.classification.env.MetricsRegistry.Stage;
+import org.tensorflow.lite.examples.classification.env.Tracer;
 import org.tensorflow.lite.gpu.GpuDelegate;
 
 /** A classifier specialized to label images using TensorFlow Lite. */
-public abstract class Classifier {
+public abstract class Classifier implements InputNormalizer, ThreadAutotuner.Target {
   private static final Logger LOGGER = new Logger();
 
   /** The model type used for classification. */
@@ -74,6 +71,38 @@ public abstract class Classifier {
   /** Labels corresponding to the output of the vision model. */
   private List<String> labels;
 
+  /** Recognition ids of the labels, i.e. their index as a string. */
+  private String[] labelIds;
+
+  /** Picks the best labels from {@link #scores}. */
+  private final TopKSelector topK = new TopKSelector(MAX_RESULTS);
+
+  /** The best labels of the image being ranked, best first, and their probabilities. */
+  private final int[] topLabels = new int[MAX_RESULTS];
+
+  private final float[] topProbabilities = new float[MAX_RESULTS];
+
+  /** Ranks probabilities copied out by {@link #classifyImage}. */
+  private ResultRanker resultRanker;
+
+  /** Whether the last inference was run by {@link #recognizeImages}. */
+  private boolean lastInferenceBatched;
+
+  /** Serializes the warm-up with inference and closing. */
+  private final Object interpreterLock = new Object();
+
+  /** The warm-up started by {@link #startWarmUp}, if any. */
+  private Future<InterpreterWarmUp.Stats> warmUp = null;
+
+  /** Zeroed input for warm-up and tuning runs, allocated by the first one. */
+  private ByteBuffer syntheticInput = null;
+
+  /** The tuner picking the thread count, set by {@link #startTuning}. */
+  private ThreadAutotuner tuner = null;
+
+  /** The last tuning started, if any. Set together with {@link #tuner}. */
+  private volatile Future<ThreadAutotuner.Result> tuning = null;
+
   /** Optional GPU delegate for accleration. */
   private GpuDelegate gpuDelegate = null;
 
@@ -83,6 +112,18 @@ public abstract class Classifier {
   /** A ByteBuffer to hold image data, to be feed into Tensorflow Lite as inputs. */
   protected ByteBuffer imgData = null;
 
+  /** Holds the images of the last {@link #recognizeImages} call back to back. */
+  private ByteBuffer batchImgData = null;
+
+  /** Views of the images in {@link #batchImgData}. */
+  private ByteBuffer[] batchImages = null;
+
+  /** The batch size of the interpreter's input tensor. */
+  private int inputBatchSize = DIM_BATCH_SIZE;
+
+  /** Normalized probabilities of the image being ranked, indexed by label. */
+  private float[] scores;
+
   /**
    * Creates a classifier with the provided configuration.
    *
@@ -101,6 +142,27 @@ public abstract class Classifier {
     }
   }
 
+  /**
+   * Creates a classifier and starts warming it up, see {@link #startWarmUp}.
+   *
+   * @param warmUpRuns The number of synthetic inferences to warm up with, or 0 to skip warming up.
+   * @param executor Runs the warm-up, see {@link #startWarmUp}.
+   */
+  public static Classifier create(
+      Activity activity,
+      Model model,
+      Device device,
+      int numThreads,
+      int warmUpRuns,
+      Executor executor)
+      throws IOException {
+    final Classifier classifier = create(activity, model, device, numThreads);
+    if (warmUpRuns > 0) {
+      classifier.startWarmUp(warmUpRuns, executor);
+    }
+    return classifier;
+  }
+
   /** An immutable result returned by a Classifier describing what was recognized. */
   public static class Recognition {
     /**
@@ -171,55 +233,68 @@ public abstract class Classifier {
     }
   }
 
-  /** Initializes a {@code Classifier}. */
-  protected Classifier(Activity activity, Device device, int numThreads) throws IOException {
-    tfliteModel = loadModelFile(activity);
-    switch (device) {
-      case NNAPI:
-        tfliteOptions.setUseNNAPI(true);
-        break;
-      case GPU:
-        gpuDelegate = new GpuDelegate();
-        tfliteOptions.addDelegate(gpuDelegate);
-        break;
-      case CPU:
-        break;
+  /**
+   * Turns the probabilities copied out by {@link #classifyImage} into results. It has its own
+   * selection buffers, so it can rank on another thread than the one running inference, one call at
+   * a time. It stays usable after the classifier is closed.
+   */
+  public static final class ResultRanker {
+    private final List<String> labels;
+    private final String[] labelIds;
+    private final TopKSelector topK = new TopKSelector(MAX_RESULTS);
+
+    private ResultRanker(final List<String> labels, final String[] labelIds) {
+      this.labels = labels;
+      this.labelIds = labelIds;
     }
-    tfliteOptions.setNumThreads(numThreads);
-    tflite = new Interpreter(tfliteModel, tfliteOptions);
-    labels = loadLabelList(activity);
-    imgData =
-        ByteBuffer.allocateDirect(
-            DIM_BATCH_SIZE
-                * getImageSizeX()
-                * getImageSizeY()
-                * DIM_PIXEL_SIZE
-                * getNumBytesPerChannel());
-    imgData.order(ByteOrder.nativeOrder());
-    LOGGER.d("Created a Tensorflow Lite Image Classifier.");
-  }
 
-  /** Reads label list from Assets. */
-  private List<String> loadLabelList(Activity activity) throws IOException {
-    List<String> labels = new ArrayList<String>();
-    BufferedReader reader =
-        new BufferedReader(new InputStreamReader(activity.getAssets().open(getLabelPath())));
-    String line;
-    while ((line = reader.readLine()) != null) {
-      labels.add(line);
+    /** Returns the best classifications, given the normalized probability of every label. */
+    public List<Recognition> rank(final float[] probabilities) {
+      final long startTime = SystemClock.elapsedRealtimeNanos();
+      final int count = topK.select(probabilities, probabilities.length);
+      final ArrayList<Recognition> recognitions = new ArrayList<Recognition>(count);
+      for (int i = 0; i < count; ++i) {
+        final int label = topK.getIndex(i);
+        recognitions.add(
+            new Recognition(labelIds[label], labels.get(label), probabilities[label], null));
+      }
+      MetricsRegistry.record(Stage.POSTPROCESS, SystemClock.elapsedRealtimeNanos() - startTime);
+      return recognitions;
     }
-    reader.close();
-    return labels;
   }
 
-  /** Memory-map the model file in Assets. */
-  private MappedByteBuffer loadModelFile(Activity activity) throws IOException {
-    AssetFileDescriptor fileDescriptor = activity.getAssets().openFd(getModelPath());
-    FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor());
-    FileChannel fileChannel = inputStream.getChannel();
-    long startOffset = fileDescriptor.getStartOffset();
-    long declaredLength = fileDescriptor.getDeclaredLength();
-    return fileChannel.map(FileChannel.MapMode.READ_ONLY, startOffset, declaredLength);
+  /** Initializes a {@code Classifier}. */
+  protected Classifier(Activity activity, Device device, int numThreads) throws IOException {
+    try {
+      tfliteModel = AssetCache.acquireModel(activity.getAssets(), getModelPath());
+      switch (device) {
+        case NNAPI:
+          tfliteOptions.setUseNNAPI(true);
+          break;
+        case GPU:
+          gpuDelegate = new GpuDelegate();
+          tfliteOptions.addDelegate(gpuDelegate);
+          break;
+        case CPU:
+          break;
+      }
+      tfliteOptions.setNumThreads(numThreads);
+      tflite = new Interpreter(tfliteModel, tfliteOptions);
+      labels = AssetCache.acquireLabels(activity.getAssets(), getLabelPath());
+      scores = new float[labels.size()];
+      labelIds = new String[labels.size()];
+      for (int i = 0; i < labelIds.length; ++i) {
+        labelIds[i] = Integer.toString(i);
+      }
+    } catch (IOException | RuntimeException e) {
+      // Releases what was loaded before the failure.
+      close();
+      throw e;
+    }
+    resultRanker = new ResultRanker(labels, labelIds);
+    imgData = ByteBuffer.allocateDirect(DIM_BATCH_SIZE * getImageSizeInBytes());
+    imgData.order(ByteOrder.nativeOrder());
+    LOGGER.d("Created a Tensorflow Lite Image Classifier.");
   }
 
   /** Writes Image data into a {@code ByteBuffer}. */
@@ -229,75 +304,375 @@ public abstract class Classifier {
     }
     imgData.rewind();
     bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-    // Convert the image to floating point.
-    int pixel = 0;
-    long startTime = SystemClock.uptimeMillis();
-    for (int i = 0; i < getImageSizeX(); ++i) {
-      for (int j = 0; j < getImageSizeY(); ++j) {
-        final int val = intValues[pixel++];
-        addPixelValue(val);
-      }
-    }
-    long endTime = SystemClock.uptimeMillis();
-    LOGGER.v("Timecost to put values into ByteBuffer: " + (endTime - startTime));
+    // Convert the image to the model's input format.
+    final long startTime = SystemClock.elapsedRealtimeNanos();
+    normalize(intValues, imgData);
+    MetricsRegistry.record(Stage.PREPROCESS, SystemClock.elapsedRealtimeNanos() - startTime);
   }
 
   /** Runs inference and returns the classification results. */
   public List<Recognition> recognizeImage(final Bitmap bitmap) {
     // Log this method so that it can be analyzed with systrace.
-    Trace.beginSection("recognizeImage");
+    Tracer.beginSection("recognizeImage");
+
+    Tracer.beginSection("preprocessBitmap");
+    convertBitmapToByteBuffer(bitmap);
+    Tracer.endSection();
+
+    final List<Recognition> recognitions = runInferenceAndGetResults();
+    Tracer.endSection();
+    return recognitions;
+  }
+
+  /**
+   * Runs inference on the input previously written into {@link #getInputBuffer()} and returns the
+   * classification results.
+   */
+  public List<Recognition> recognizeInputBuffer() {
+    Tracer.beginSection("recognizeImage");
+    final List<Recognition> recognitions = runInferenceAndGetResults();
+    Tracer.endSection();
+    return recognitions;
+  }
+
+  /**
+   * Runs inference and copies the normalized probability of every label into {@code probabilities},
+   * leaving the ranking to {@link #getResultRanker()}. This lets callers rank the results of one
+   * image while the next one is classified.
+   *
+   * @param probabilities Receives the probabilities, indexed by label. Its length is {@link
+   *     #getNumLabels()}.
+   */
+  public void classifyImage(final Bitmap bitmap, final float[] probabilities) {
+    Tracer.beginSection("classifyImage");
 
-    Trace.beginSection("preprocessBitmap");
+    Tracer.beginSection("preprocessBitmap");
     convertBitmapToByteBuffer(bitmap);
-    Trace.endSection();
+    Tracer.endSection();
+
+    synchronized (interpreterLock) {
+      runTimedInference(imgData);
+      for (int label = 0; label < probabilities.length; ++label) {
+        probabilities[label] = getNormalizedProbability(label);
+      }
+    }
+    Tracer.endSection();
+  }
+
+  /**
+   * Like {@link #classifyImage}, but on an image the caller already wrote with {@link #normalize},
+   * so that the next image can be preprocessed on another thread while this one is classified.
+   *
+   * @param input A direct buffer in native byte order, laid out like {@link #getInputBuffer()}.
+   * @param probabilities Receives the probabilities, indexed by label. Its length is {@link
+   *     #getNumLabels()}.
+   */
+  public void classifyInput(final ByteBuffer input, final float[] probabilities) {
+    Tracer.beginSection("classifyInput");
+    synchronized (interpreterLock) {
+      runTimedInference(input);
+      for (int label = 0; label < probabilities.length; ++label) {
+        probabilities[label] = getNormalizedBatchProbability(0, label);
+      }
+    }
+    Tracer.endSection();
+  }
+
+  /**
+   * Returns the ranker of the probabilities copied out by {@link #classifyImage} and {@link
+   * #classifyInput}.
+   */
+  public ResultRanker getResultRanker() {
+    return resultRanker;
+  }
+
+  /**
+   * Classifies several images with a single interpreter invocation, by resizing the input tensor to
+   * hold all of them. This amortizes the per-invocation overhead for offline scoring and for
+   * classifying several crops of a frame.
+   *
+   * <p>Every resize makes the interpreter reallocate its tensors, so callers should keep the batch
+   * size steady. Models with a hard-coded batch size, and the GPU delegate, may not support
+   * resizing.
+   *
+   * @param bitmaps Images of getImageSizeX() x getImageSizeY() pixels.
+   * @return The classification results of every image, in the order of {@code bitmaps}.
+   */
+  public List<List<Recognition>> recognizeImages(final List<Bitmap> bitmaps) {
+    Tracer.beginSection("recognizeImages");
+    final int batchSize = bitmaps.size();
+    final List<List<Recognition>> results = new ArrayList<>(batchSize);
+    if (batchSize == 0) {
+      Tracer.endSection();
+      return results;
+    }
 
+    Tracer.beginSection("preprocessBitmaps");
+    prepareBatchInput(batchSize);
+    for (int i = 0; i < batchSize; ++i) {
+      final Bitmap bitmap = bitmaps.get(i);
+      bitmap.getPixels(
+          intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+      normalize(intValues, batchImages[i]);
+    }
+    Tracer.endSection();
+
+    synchronized (interpreterLock) {
+      Tracer.beginSection("runInference");
+      final long startTime = SystemClock.elapsedRealtimeNanos();
+      resizeInput(batchSize);
+      runBatchInference(batchImgData, batchSize);
+      // One invocation for the whole batch. Not passed to the tuner, which expects single images.
+      MetricsRegistry.record(Stage.INFER, SystemClock.elapsedRealtimeNanos() - startTime);
+      Tracer.endSection();
+
+      lastInferenceBatched = true;
+      final long postprocessStartTime = SystemClock.elapsedRealtimeNanos();
+      for (int i = 0; i < batchSize; ++i) {
+        results.add(getTopResults(i));
+      }
+      MetricsRegistry.record(
+          Stage.POSTPROCESS, SystemClock.elapsedRealtimeNanos() - postprocessStartTime);
+    }
+    Tracer.endSection();
+    return results;
+  }
+
+  private List<Recognition> runInferenceAndGetResults() {
+    synchronized (interpreterLock) {
+      runTimedInference(imgData);
+
+      lastInferenceBatched = false;
+      final long postprocessStartTime = SystemClock.elapsedRealtimeNanos();
+      final List<Recognition> recognitions = getTopResults(0);
+      MetricsRegistry.record(
+          Stage.POSTPROCESS, SystemClock.elapsedRealtimeNanos() - postprocessStartTime);
+      return recognitions;
+    }
+  }
+
+  /**
+   * Runs inference on {@code input} and records its latency. Called with the lock held. Other
+   * buffers than {@link #imgData} run as a batch of one, whose output is read with {@link
+   * #getNormalizedBatchProbability}.
+   */
+  private void runTimedInference(ByteBuffer input) {
     // Run the inference call.
-    Trace.beginSection("runInference");
-    long startTime = SystemClock.uptimeMillis();
-    runInference();
-    long endTime = SystemClock.uptimeMillis();
-    Trace.endSection();
-    LOGGER.v("Timecost to run model inference: " + (endTime - startTime));
-
-    // Find the best classifications.
-    PriorityQueue<Recognition> pq =
-        new PriorityQueue<Recognition>(
-            3,
-            new Comparator<Recognition>() {
-              @Override
-              public int compare(Recognition lhs, Recognition rhs) {
-                // Intentionally reversed to put high confidence at the head of the queue.
-                return Float.compare(rhs.getConfidence(), lhs.getConfidence());
-              }
-            });
-    for (int i = 0; i < labels.size(); ++i) {
-      pq.add(
-          new Recognition(
-              "" + i,
-              labels.size() > i ? labels.get(i) : "unknown",
-              getNormalizedProbability(i),
-              null));
+    Tracer.beginSection("runInference");
+    long startTime = SystemClock.elapsedRealtimeNanos();
+    resizeInput(DIM_BATCH_SIZE);
+    if (input == imgData) {
+      runInference();
+    } else {
+      runBatchInference(input, DIM_BATCH_SIZE);
+    }
+    final long elapsed = SystemClock.elapsedRealtimeNanos() - startTime;
+    Tracer.endSection();
+    MetricsRegistry.record(Stage.INFER, elapsed);
+    if (tuner != null && tuning.isDone()) {
+      tuner.recordLatency(this, elapsed);
+    }
+  }
+
+  /**
+   * Starts running {@code runs} inferences on a zero input, so that the first real inference is as
+   * fast as the following ones. Inference waits for a warm-up run in progress, so callers that
+   * cannot afford to wait check {@link #isReady()} first.
+   *
+   * @param executor Runs the inferences, one task per run. With a GPU delegate, it must run them on
+   *     the thread that created the classifier.
+   * @return Completes with the cold and warm latencies once the classifier is warm.
+   */
+  public Future<InterpreterWarmUp.Stats> startWarmUp(int runs, Executor executor) {
+    warmUp = InterpreterWarmUp.start(runs, this::runSyntheticInference, executor);
+    return warmUp;
+  }
+
+  /**
+   * Starts picking the thread count with {@code tuner} in the background, once the warm-up is done.
+   * The classifier is not {@link #isReady() ready} meanwhile. Afterwards the latency of every
+   * inference is passed to the tuner, which tries other thread counts on the following inferences
+   * when it drifts.
+   *
+   * @param saveResult Whether to save the thread count for later launches. Pass false while another
+   *     classifier runs inference, which skews the timings.
+   * @return Completes with the thread count once the classifier uses it.
+   */
+  public Future<ThreadAutotuner.Result> startTuning(ThreadAutotuner tuner, boolean saveResult) {
+    synchronized (interpreterLock) {
+      this.tuner = tuner;
+      tuning = tuner.start(this, warmUp, saveResult);
+      return tuning;
+    }
+  }
+
+  @Override
+  public String getModelHash() {
+    return AssetCache.getModelHash(getModelPath());
+  }
+
+  // TF Lite 1.13 has no other way to change the thread count of a running interpreter.
+  @SuppressWarnings("deprecation")
+  @Override
+  public void setNumThreads(int numThreads) {
+    synchronized (interpreterLock) {
+      if (tflite != null) {
+        tflite.setNumThreads(numThreads);
+      }
+    }
+  }
+
+  @Override
+  public boolean runSyntheticInference() {
+    synchronized (interpreterLock) {
+      if (tflite == null) {
+        return false;
+      }
+      if (syntheticInput == null) {
+        // Direct buffers start out zeroed. The input buffer is left alone, since callers may be
+        // writing into it already.
+        syntheticInput = ByteBuffer.allocateDirect(DIM_BATCH_SIZE * getImageSizeInBytes());
+        syntheticInput.order(ByteOrder.nativeOrder());
+      }
+      resizeInput(DIM_BATCH_SIZE);
+      runBatchInference(syntheticInput, DIM_BATCH_SIZE);
+      return true;
     }
-    final ArrayList<Recognition> recognitions = new ArrayList<Recognition>();
-    int recognitionsSize = Math.min(pq.size(), MAX_RESULTS);
+  }
+
+  /** Returns the warm-up started by {@link #startWarmUp}, or null if there was none. */
+  public Future<InterpreterWarmUp.Stats> getWarmUp() {
+    return warmUp;
+  }
+
+  /** Returns true unless the classifier is still warming up or tuning. */
+  public boolean isReady() {
+    final Future<ThreadAutotuner.Result> tuning = this.tuning;
+    return (warmUp == null || warmUp.isDone()) && (tuning == null || tuning.isDone());
+  }
+
+  /** Allocates the input buffer and per-image views for batches of {@code batchSize} images. */
+  private void prepareBatchInput(int batchSize) {
+    if (batchImages != null && batchImages.length == batchSize) {
+      return;
+    }
+    final int imageSize = getImageSizeInBytes();
+    // The interpreter expects the buffer to be exactly as large as the input tensor.
+    batchImgData = ByteBuffer.allocateDirect(batchSize * imageSize);
+    batchImgData.order(ByteOrder.nativeOrder());
+    batchImages = new ByteBuffer[batchSize];
+    for (int i = 0; i < batchSize; ++i) {
+      final ByteBuffer image = batchImgData.duplicate();
+      image.position(i * imageSize);
+      image.limit((i + 1) * imageSize);
+      batchImages[i] = image.slice().order(ByteOrder.nativeOrder());
+    }
+  }
+
+  /** Resizes the batch dimension of the input tensor, if it changed. */
+  private void resizeInput(int batchSize) {
+    if (inputBatchSize != batchSize) {
+      tflite.resizeInput(
+          0, new int[] {batchSize, getImageSizeY(), getImageSizeX(), DIM_PIXEL_SIZE});
+      inputBatchSize = batchSize;
+    }
+  }
+
+  private int getImageSizeInBytes() {
+    return getImageSizeX() * getImageSizeY() * DIM_PIXEL_SIZE * getNumBytesPerChannel();
+  }
+
+  /** Returns the best classifications of an image of the last inference. */
+  private List<Recognition> getTopResults(int imageIndex) {
+    // Only the winners are turned into objects; ranking works on the output itself.
+    final int recognitionsSize = selectTopLabels(imageIndex, topLabels, topProbabilities);
+    final ArrayList<Recognition> recognitions = new ArrayList<Recognition>(recognitionsSize);
     for (int i = 0; i < recognitionsSize; ++i) {
-      recognitions.add(pq.poll());
+      final int label = topLabels[i];
+      recognitions.add(
+          new Recognition(labelIds[label], labels.get(label), topProbabilities[i], null));
     }
-    Trace.endSection();
     return recognitions;
   }
 
+  /**
+   * Finds the labels with the highest probability for an image of the last inference. The default
+   * implementation ranks the normalized probabilities of all labels; subclasses may rank their raw
+   * output instead.
+   *
+   * @param imageIndex The position of the image in the last batch, or 0 after {@link
+   *     #runInference()}.
+   * @param topLabels Receives the indices of the best labels, best first.
+   * @param topProbabilities Receives the normalized probabilities of the best labels.
+   * @return The number of labels written, at most {@code topLabels.length}.
+   */
+  protected int selectTopLabels(int imageIndex, int[] topLabels, float[] topProbabilities) {
+    for (int label = 0; label < scores.length; ++label) {
+      scores[label] =
+          lastInferenceBatched
+              ? getNormalizedBatchProbability(imageIndex, label)
+              : getNormalizedProbability(label);
+    }
+    final int count = topK.select(scores, scores.length);
+    for (int i = 0; i < count; ++i) {
+      topLabels[i] = topK.getIndex(i);
+      topProbabilities[i] = scores[topLabels[i]];
+    }
+    return count;
+  }
+
+  /**
+   * Returns the buffer holding the model input, for callers that write preprocessed pixels into it
+   * directly. Pixels are stored row by row as RGB, using {@link #getNumBytesPerChannel()} bytes per
+   * channel.
+   */
+  public ByteBuffer getInputBuffer() {
+    return imgData;
+  }
+
+  /** Returns true if the model takes its input as unsigned bytes rather than floats. */
+  public boolean isQuantized() {
+    return getNumBytesPerChannel() == 1;
+  }
+
+  /**
+   * Get the value subtracted from each channel before it is fed into a float model.
+   *
+   * @return
+   */
+  public float getImageMean() {
+    return 0.0f;
+  }
+
+  /**
+   * Get the value each channel is divided by before it is fed into a float model.
+   *
+   * @return
+   */
+  public float getImageStd() {
+    return 1.0f;
+  }
+
   /** Closes the interpreter and model to release resources. */
   public void close() {
-    if (tflite != null) {
-      tflite.close();
-      tflite = null;
-    }
-    if (gpuDelegate != null) {
-      gpuDelegate.close();
-      gpuDelegate = null;
+    synchronized (interpreterLock) {
+      if (tflite != null) {
+        tflite.close();
+        tflite = null;
+      }
+      if (gpuDelegate != null) {
+        gpuDelegate.close();
+        gpuDelegate = null;
+      }
+      if (tfliteModel != null) {
+        AssetCache.releaseModel(getModelPath());
+      }
+      tfliteModel = null;
+      if (labels != null) {
+        AssetCache.releaseLabels(getLabelPath());
+        labels = null;
+      }
     }
-    tfliteModel = null;
   }
 
   /**
@@ -335,13 +710,6 @@ public abstract class Classifier {
    */
   protected abstract int getNumBytesPerChannel();
 
-  /**
-   * Add pixelValue to byteBuffer.
-   *
-   * @param pixelValue
-   */
-  protected abstract void addPixelValue(int pixelValue);
-
   /**
    * Read the probability value for the specified label This is either the original value as it was
    * read from the net's output or the updated value after the filter was applied.
@@ -376,12 +744,27 @@ public abstract class Classifier {
    */
   protected abstract void runInference();
 
+  /**
+   * Run inference on {@code batchSize} images stored back to back in {@code input}. Afterwards, the
+   * result will be provided by getNormalizedBatchProbability().
+   */
+  protected abstract void runBatchInference(ByteBuffer input, int batchSize);
+
+  /**
+   * Get the normalized probability value for the specified label of an image of the last batch.
+   *
+   * @param imageIndex The position of the image in the batch.
+   * @param labelIndex
+   * @return
+   */
+  protected abstract float getNormalizedBatchProbability(int imageIndex, int labelIndex);
+
   /**
    * Get the total number of labels.
    *
    * @return
    */
-  protected int getNumLabels() {
+  public int getNumLabels() {
     return labels.size();
   }
 }
@@ -0,0 +1,155 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.classification.tflite;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.tensorflow.lite.examples.classification.env.Logger;
+import org.tensorflow.lite.examples.classification.tflite.Classifier.Device;
+import org.tensorflow.lite.examples.classification.tflite.Classifier.Model;
+
+/**
+ * Measures the classifiers on the device: the per-image latency of {@link
+ * Classifier#recognizeImages}, to find out whether batching pays off for a model and delegate, and
+ * the throughput of a {@link ClassifierPool}, to find the best split of cores between interpreters.
+ */
+public final class ClassifierBenchmark {
+  private static final Logger LOGGER = new Logger();
+
+  private ClassifierBenchmark() {}
+
+  /**
+   * Classifies batches of synthetic images of every size in {@code batchSizes}, after one warm-up
+   * run per size, and logs the results.
+   *
+   * @param classifier The classifier to measure. It must not be used by other threads meanwhile.
+   * @param batchSizes The batch sizes to measure, e.g. 1, 4, 8 and 16.
+   * @param iterations The number of batches to time per size.
+   * @return The mean latency per image in milliseconds, for every batch size.
+   */
+  public static float[] measureBatchLatency(
+      final Classifier classifier, final int[] batchSizes, final int iterations) {
+    final float[] latencies = new float[batchSizes.length];
+    final List<Bitmap> bitmaps = new ArrayList<>();
+    final Random random = new Random(0);
+    for (int i = 0; i < batchSizes.length; ++i) {
+      final int batchSize = batchSizes[i];
+      while (bitmaps.size() < batchSize) {
+        bitmaps.add(
+            createRandomBitmap(classifier.getImageSizeX(), classifier.getImageSizeY(), random));
+      }
+      final List<Bitmap> batch = bitmaps.subList(0, batchSize);
+
+      // The first run after a resize reallocates the interpreter's tensors.
+      classifier.recognizeImages(batch);
+      final long startTime = SystemClock.elapsedRealtimeNanos();
+      for (int j = 0; j < iterations; ++j) {
+        classifier.recognizeImages(batch);
+      }
+      final long elapsed = SystemClock.elapsedRealtimeNanos() - startTime;
+      latencies[i] = elapsed / 1e6f / iterations / batchSize;
+      LOGGER.i("Batch size %d: %.2f ms per image", batchSize, latencies[i]);
+    }
+    for (final Bitmap bitmap : bitmaps) {
+      bitmap.recycle();
+    }
+    return latencies;
+  }
+
+  /**
+   * Classifies synthetic images with a pool of every size in {@code poolSizes} and every thread
+   * budget in {@code threadBudgets}, with one calling thread per classifier, and logs the results.
+   *
+   * @param device The device of the pooled classifiers, which can't be {@link Device#GPU}.
+   * @param poolSizes The numbers of classifiers to measure.
+   * @param threadBudgets The total numbers of interpreter threads to measure, split evenly between
+   *     the classifiers of a pool.
+   * @param images The number of images to classify per configuration, after a warm-up round.
+   * @return The throughput in images per second, indexed by pool size and thread budget.
+   */
+  public static float[][] measurePoolThroughput(
+      final Activity activity,
+      final Model model,
+      final Device device,
+      final int[] poolSizes,
+      final int[] threadBudgets,
+      final int images)
+      throws IOException, InterruptedException {
+    final float[][] throughputs = new float[poolSizes.length][threadBudgets.length];
+    for (int i = 0; i < poolSizes.length; ++i) {
+      for (int j = 0; j < threadBudgets.length; ++j) {
+        final ClassifierPool pool =
+            ClassifierPool.create(activity, model, device, poolSizes[i], threadBudgets[j]);
+        try {
+          runConcurrently(pool, pool.getSize());
+          final long startTime = SystemClock.elapsedRealtimeNanos();
+          runConcurrently(pool, images);
+          final long elapsed = SystemClock.elapsedRealtimeNanos() - startTime;
+          throughputs[i][j] = images * 1e9f / elapsed;
+        } finally {
+          pool.close();
+        }
+        LOGGER.i(
+            "Pool of %d classifiers with %d threads each: %.1f images/s",
+            pool.getSize(), pool.getThreadsPerClassifier(), throughputs[i][j]);
+      }
+    }
+    return throughputs;
+  }
+
+  /** Classifies {@code images} synthetic images with one thread per classifier of {@code pool}. */
+  private static void runConcurrently(final ClassifierPool pool, final int images)
+      throws InterruptedException {
+    final AtomicInteger remaining = new AtomicInteger(images);
+    final Thread[] workers = new Thread[pool.getSize()];
+    for (int i = 0; i < workers.length; ++i) {
+      final Bitmap bitmap =
+          createRandomBitmap(pool.getImageSizeX(), pool.getImageSizeY(), new Random(i));
+      workers[i] =
+          new Thread(
+              () -> {
+                try {
+                  while (remaining.getAndDecrement() > 0) {
+                    pool.recognizeImage(bitmap);
+                  }
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                } finally {
+                  bitmap.recycle();
+                }
+              },
+              "classifier-benchmark-" + i);
+      workers[i].start();
+    }
+    for (final Thread worker : workers) {
+      worker.join();
+    }
+  }
+
+  private static Bitmap createRandomBitmap(final int width, final int height, final Random random) {
+    final int[] pixels = new int[width * height];
+    for (int i = 0; i < pixels.length; ++i) {
+      pixels[i] = 0xff000000 | random.nextInt(0x1000000);
+    }
+    return Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+  }
+}
@@ -17,6 +17,8 @@ package org.tensorflow.lite.examples.classification.tflite;
 
 import android.app.Activity;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 
 /** This TensorFlowLite classifier works with the float MobileNet model. */
 public class ClassifierFloatMobileNet extends Classifier {
@@ -31,6 +33,18 @@ public class ClassifierFloatMobileNet extends Classifier {
    */
   private float[][] labelProbArray = null;
 
+  /** Inference results of the last batch, one row per image. */
+  private float[][] batchLabelProbArray = null;
+
+  /**
+   * A float view of the last input buffer passed to {@link #normalize}, created on first use.
+   * Pipelined callers normalize on another thread than the one running inference.
+   */
+  private volatile FloatInput floatInput = null;
+
+  private final NormalizationTables normalization =
+      NormalizationTables.subtractThenDivide(IMAGE_MEAN, IMAGE_STD);
+
   /**
    * Initializes a {@code ClassifierFloatMobileNet}.
    *
@@ -71,10 +85,51 @@ public class ClassifierFloatMobileNet extends Classifier {
   }
 
   @Override
-  protected void addPixelValue(int pixelValue) {
-    imgData.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-    imgData.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-    imgData.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+  public float getImageMean() {
+    return IMAGE_MEAN;
+  }
+
+  @Override
+  public float getImageStd() {
+    return IMAGE_STD;
+  }
+
+  @Override
+  public void normalize(int[] pixels, ByteBuffer input) {
+    final FloatBuffer floats = getFloatInput(input);
+    final float[] red = normalization.red;
+    final float[] green = normalization.green;
+    final float[] blue = normalization.blue;
+    for (int i = 0, offset = 0; i < pixels.length; i++, offset += 3) {
+      final int pixelValue = pixels[i];
+      floats.put(offset, red[(pixelValue >> 16) & 0xFF]);
+      floats.put(offset + 1, green[(pixelValue >> 8) & 0xFF]);
+      floats.put(offset + 2, blue[pixelValue & 0xFF]);
+    }
+  }
+
+  private FloatBuffer getFloatInput(ByteBuffer input) {
+    FloatInput cached = floatInput;
+    if (cached == null || cached.source != input) {
+      // The view starts at the current position and has the byte order of the buffer it is
+      // created from, so create it from a rewound duplicate.
+      final ByteBuffer start = input.duplicate().order(input.order());
+      start.rewind();
+      cached = new FloatInput(input, start.asFloatBuffer());
+      floatInput = cached;
+    }
+    return cached.floats;
+  }
+
+  /** An input buffer and its float view, which is only written with absolute puts. */
+  private static final class FloatInput {
+    final ByteBuffer source;
+    final FloatBuffer floats;
+
+    FloatInput(ByteBuffer source, FloatBuffer floats) {
+      this.source = source;
+      this.floats = floats;
+    }
   }
 
   @Override
@@ -96,4 +151,17 @@ public class ClassifierFloatMobileNet extends Classifier {
   protected void runInference() {
     tflite.run(imgData, labelProbArray);
   }
+
+  @Override
+  protected void runBatchInference(ByteBuffer input, int batchSize) {
+    if (batchLabelProbArray == null || batchLabelProbArray.length != batchSize) {
+      batchLabelProbArray = new float[batchSize][getNumLabels()];
+    }
+    tflite.run(input, batchLabelProbArray);
+  }
+
+  @Override
+  protected float getNormalizedBatchProbability(int imageIndex, int labelIndex) {
+    return batchLabelProbArray[imageIndex][labelIndex];
+  }
 }
@@ -0,0 +1,95 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.classification.tflite;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publishes the current classifier to the threads running inference, and lets it be replaced while
+ * they do. A replacement is built elsewhere and published with {@link #swap}, so inference keeps
+ * running on the old classifier until then. The old classifier is closed once the last inference
+ * that borrowed it with {@link #acquire()} is done.
+ */
+public class ClassifierHolder {
+  /** A classifier borrowed for one inference. Call {@link #release()} when done with it. */
+  public static final class Lease {
+    private final Classifier classifier;
+    // One reference for the holder, plus one per borrower. The classifier is closed at zero.
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private Lease(final Classifier classifier) {
+      this.classifier = classifier;
+    }
+
+    public Classifier getClassifier() {
+      return classifier;
+    }
+
+    /** Hands the classifier back. It must not be used afterwards. */
+    public void release() {
+      if (references.decrementAndGet() == 0) {
+        classifier.close();
+      }
+    }
+
+    private boolean retain() {
+      while (true) {
+        final int count = references.get();
+        if (count == 0) {
+          return false;
+        }
+        if (references.compareAndSet(count, count + 1)) {
+          return true;
+        }
+      }
+    }
+  }
+
+  private final AtomicReference<Lease> current = new AtomicReference<>();
+
+  /** Returns true if there is a current classifier, which inference may be running on. */
+  public boolean hasClassifier() {
+    return current.get() != null;
+  }
+
+  /** Borrows the current classifier, or returns null if there is none. */
+  public Lease acquire() {
+    while (true) {
+      final Lease lease = current.get();
+      if (lease == null) {
+        return null;
+      }
+      // Fails if the classifier was replaced and closed meanwhile; then retry with the new one.
+      if (lease.retain()) {
+        return lease;
+      }
+    }
+  }
+
+  /**
+   * Publishes {@code classifier} as the current classifier. The previous one is closed as soon as
+   * no inference uses it anymore.
+   *
+   * @param classifier The new classifier, or null to just retire the current one.
+   */
+  public void swap(final Classifier classifier) {
+    final Lease previous = current.getAndSet(classifier != null ? new Lease(classifier) : null);
+    if (previous != null) {
+      previous.release();
+    }
+  }
+}
@@ -0,0 +1,145 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.classification.tflite;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import org.tensorflow.lite.examples.classification.env.Logger;
+import org.tensorflow.lite.examples.classification.tflite.Classifier.Device;
+import org.tensorflow.lite.examples.classification.tflite.Classifier.Model;
+import org.tensorflow.lite.examples.classification.tflite.Classifier.Recognition;
+
+/**
+ * A fixed set of classifiers that lets several threads run inference at the same time. An
+ * interpreter may only be used by one thread at a time, so each caller borrows a classifier for the
+ * duration of its inference. All classifiers run the same memory-mapped model, so the model is only
+ * loaded once.
+ *
+ * <p>The pool splits a total thread budget between its interpreters, so that N concurrent
+ * inferences do not start more threads than there are cores.
+ *
+ * <p>A GPU delegate is bound to the thread that created it, so pooled classifiers, which run on
+ * whichever thread borrows them, can only use the CPU or NNAPI.
+ */
+public class ClassifierPool {
+  private static final Logger LOGGER = new Logger();
+
+  private final Classifier[] classifiers;
+  private final BlockingQueue<Classifier> available;
+  private final int threadsPerClassifier;
+
+  private ClassifierPool(Classifier[] classifiers, int threadsPerClassifier) {
+    this.classifiers = classifiers;
+    this.threadsPerClassifier = threadsPerClassifier;
+    available = new ArrayBlockingQueue<>(classifiers.length);
+    for (final Classifier classifier : classifiers) {
+      available.add(classifier);
+    }
+  }
+
+  /**
+   * Creates a pool of classifiers of the same configuration.
+   *
+   * @param activity The current Activity.
+   * @param model The model to use for classification.
+   * @param device The device to use for classification. Must not be {@link Device#GPU}.
+   * @param poolSize The number of classifiers, i.e. of inferences that can run at the same time.
+   * @param totalThreads The number of threads shared by all classifiers. Each one gets {@code
+   *     totalThreads / poolSize}, but at least one.
+   */
+  public static ClassifierPool create(
+      Activity activity, Model model, Device device, int poolSize, int totalThreads)
+      throws IOException {
+    if (poolSize < 1) {
+      throw new IllegalArgumentException("A classifier pool needs at least one classifier.");
+    }
+    if (device == Device.GPU) {
+      throw new IllegalArgumentException("GPU delegates can't be shared between threads.");
+    }
+    final int threadsPerClassifier = Math.max(1, totalThreads / poolSize);
+    final Classifier[] classifiers = new Classifier[poolSize];
+    try {
+      // The model is mapped once, and shared through the AssetCache.
+      for (int i = 0; i < poolSize; ++i) {
+        classifiers[i] = Classifier.create(activity, model, device, threadsPerClassifier);
+      }
+    } catch (IOException | RuntimeException e) {
+      for (final Classifier classifier : classifiers) {
+        if (classifier != null) {
+          classifier.close();
+        }
+      }
+      throw e;
+    }
+    LOGGER.d(
+        "Created a pool of %d classifiers with %d threads each.", poolSize, threadsPerClassifier);
+    return new ClassifierPool(classifiers, threadsPerClassifier);
+  }
+
+  /** Returns the number of classifiers in the pool. */
+  public int getSize() {
+    return classifiers.length;
+  }
+
+  /** Returns the number of threads each classifier's interpreter uses. */
+  public int getThreadsPerClassifier() {
+    return threadsPerClassifier;
+  }
+
+  /** Returns the input width of the model. */
+  public int getImageSizeX() {
+    return classifiers[0].getImageSizeX();
+  }
+
+  /** Returns the input height of the model. */
+  public int getImageSizeY() {
+    return classifiers[0].getImageSizeY();
+  }
+
+  /**
+   * Borrows a classifier, waiting until one is available. It must be handed back with {@link
+   * #release} and must not be used afterwards.
+   */
+  public Classifier acquire() throws InterruptedException {
+    return available.take();
+  }
+
+  /** Hands back a classifier borrowed with {@link #acquire()}. */
+  public void release(final Classifier classifier) {
+    available.add(classifier);
+  }
+
+  /** Classifies {@code bitmap} with the next available classifier. */
+  public List<Recognition> recognizeImage(final Bitmap bitmap) throws InterruptedException {
+    final Classifier classifier = acquire();
+    try {
+      return classifier.recognizeImage(bitmap);
+    } finally {
+      release(classifier);
+    }
+  }
+
+  /** Waits for all borrowed classifiers to be handed back, and closes them. */
+  public void close() throws InterruptedException {
+    for (int i = 0; i < classifiers.length; ++i) {
+      acquire().close();
+    }
+  }
+}
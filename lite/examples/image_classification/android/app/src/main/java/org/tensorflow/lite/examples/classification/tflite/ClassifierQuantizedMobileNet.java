@@ -17,6 +17,8 @@ package org.tensorflow.lite.examples.classification.tflite;
 
 import android.app.Activity;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.tensorflow.lite.Tensor;
 
 /** This TensorFlow Lite classifier works with the quantized MobileNet model. */
 public class ClassifierQuantizedMobileNet extends Classifier {
@@ -27,6 +29,19 @@ public class ClassifierQuantizedMobileNet extends Classifier {
    */
   private byte[][] labelProbArray = null;
 
+  /** Inference results of the last batch, one row per image. */
+  private byte[][] batchLabelProbArray = null;
+
+  /** Either of the arrays above, whichever was filled by the last inference. */
+  private byte[][] lastOutput = null;
+
+  /** Converts the uint8 output into probabilities: (q - outputZeroPoint) * outputScale. */
+  private final float outputScale;
+
+  private final int outputZeroPoint;
+
+  private final QuantizedTopKSelector topK = new QuantizedTopKSelector();
+
   /**
    * Initializes a {@code ClassifierQuantizedMobileNet}.
    *
@@ -36,6 +51,15 @@ public class ClassifierQuantizedMobileNet extends Classifier {
       throws IOException {
     super(activity, device, numThreads);
     labelProbArray = new byte[1][getNumLabels()];
+    final Tensor.QuantizationParams params = tflite.getOutputTensor(0).quantizationParams();
+    if (params.getScale() > 0) {
+      outputScale = params.getScale();
+      outputZeroPoint = params.getZeroPoint();
+    } else {
+      // The model does not describe its output quantization; assume it spans [0, 1].
+      outputScale = 1 / 255.0f;
+      outputZeroPoint = 0;
+    }
   }
 
   @Override
@@ -68,10 +92,13 @@ public class ClassifierQuantizedMobileNet extends Classifier {
   }
 
   @Override
-  protected void addPixelValue(int pixelValue) {
-    imgData.put((byte) ((pixelValue >> 16) & 0xFF));
-    imgData.put((byte) ((pixelValue >> 8) & 0xFF));
-    imgData.put((byte) (pixelValue & 0xFF));
+  public void normalize(int[] pixels, ByteBuffer input) {
+    for (int i = 0, offset = 0; i < pixels.length; i++, offset += 3) {
+      final int pixelValue = pixels[i];
+      input.put(offset, (byte) ((pixelValue >> 16) & 0xFF));
+      input.put(offset + 1, (byte) ((pixelValue >> 8) & 0xFF));
+      input.put(offset + 2, (byte) (pixelValue & 0xFF));
+    }
   }
 
   @Override
@@ -86,11 +113,41 @@ public class ClassifierQuantizedMobileNet extends Classifier {
 
   @Override
   protected float getNormalizedProbability(int labelIndex) {
-    return (labelProbArray[0][labelIndex] & 0xff) / 255.0f;
+    return dequantize(labelProbArray[0][labelIndex]);
   }
 
   @Override
   protected void runInference() {
     tflite.run(imgData, labelProbArray);
+    lastOutput = labelProbArray;
+  }
+
+  @Override
+  protected void runBatchInference(ByteBuffer input, int batchSize) {
+    if (batchLabelProbArray == null || batchLabelProbArray.length != batchSize) {
+      batchLabelProbArray = new byte[batchSize][getNumLabels()];
+    }
+    tflite.run(input, batchLabelProbArray);
+    lastOutput = batchLabelProbArray;
+  }
+
+  @Override
+  protected float getNormalizedBatchProbability(int imageIndex, int labelIndex) {
+    return dequantize(batchLabelProbArray[imageIndex][labelIndex]);
+  }
+
+  /** Ranks the raw output, and only dequantizes the winners. */
+  @Override
+  protected int selectTopLabels(int imageIndex, int[] topLabels, float[] topProbabilities) {
+    final byte[] output = lastOutput[imageIndex];
+    final int count = topK.select(output, getNumLabels(), topLabels);
+    for (int i = 0; i < count; ++i) {
+      topProbabilities[i] = dequantize(output[topLabels[i]]);
+    }
+    return count;
+  }
+
+  private float dequantize(byte value) {
+    return ((value & 0xff) - outputZeroPoint) * outputScale;
   }
 }
@@ -0,0 +1,30 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.classification.tflite;
+
+import java.nio.ByteBuffer;
+
+/** Converts a whole image into the input format of a model in a single call. */
+public interface InputNormalizer {
+  /**
+   * Writes the red, green and blue channels of every pixel into {@code input}, starting at index 0.
+   * Implementations use absolute puts, so the position of {@code input} is left unchanged.
+   *
+   * @param pixels ARGB pixels in row major order, as returned by {@code Bitmap.getPixels}.
+   * @param input The model input buffer, with room for 3 channels per pixel.
+   */
+  void normalize(int[] pixels, ByteBuffer input);
+}
@@ -0,0 +1,146 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.classification.tflite;
+
+import android.os.SystemClock;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import org.tensorflow.lite.examples.classification.env.Logger;
+
+/**
+ * Runs a few inferences on a new interpreter before it sees real input. The interpreter allocates
+ * its tensors and delegates prepare their kernels on the first inference, which makes it several
+ * times slower than the following ones. Warming up ahead of time keeps that delay away from the
+ * first frame.
+ *
+ * <p>The runs are tasks of the executor that will run the real inferences, so that interpreters
+ * with a GPU delegate stay on the thread they are used on. Each run is a task of its own, so other
+ * tasks, e.g. frames classified by a previous interpreter, go on in between.
+ */
+public final class InterpreterWarmUp {
+  private static final Logger LOGGER = new Logger();
+
+  /** Latencies measured while warming up. */
+  public static final class Stats {
+    private final int runs;
+    private final long coldNanos;
+    private final long warmNanos;
+
+    private Stats(final int runs, final long coldNanos, final long warmNanos) {
+      this.runs = runs;
+      this.coldNanos = coldNanos;
+      this.warmNanos = warmNanos;
+    }
+
+    /** Returns the number of inferences run. */
+    public int getRuns() {
+      return runs;
+    }
+
+    /** Returns the latency of the first inference. */
+    public long getColdNanos() {
+      return coldNanos;
+    }
+
+    /** Returns the mean latency of the following inferences, or 0 if there were none. */
+    public long getWarmNanos() {
+      return warmNanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%d runs, cold %.2f ms, warm %.2f ms", runs, coldNanos / 1e6f, warmNanos / 1e6f);
+    }
+  }
+
+  private final int runs;
+  private final Runnable inference;
+  private final Executor executor;
+  private final FutureTask<Stats> result = new FutureTask<>(this::finish);
+  private int completedRuns;
+  private long coldNanos;
+  private long warmNanos;
+  private RuntimeException failure;
+
+  private InterpreterWarmUp(final int runs, final Runnable inference, final Executor executor) {
+    this.runs = runs;
+    this.inference = inference;
+    this.executor = executor;
+  }
+
+  /**
+   * Starts running {@code inference} {@code runs} times on {@code executor}.
+   *
+   * @param inference Runs one inference on synthetic input. It must synchronize with any other use
+   *     of the interpreter.
+   * @param executor Runs the inferences, one task per run. If it rejects a run, e.g. because the
+   *     thread behind it stopped, the warm-up ends early.
+   * @return Completes with the measured latencies once the interpreter is warm.
+   */
+  static Future<Stats> start(final int runs, final Runnable inference, final Executor executor) {
+    if (runs < 1) {
+      throw new IllegalArgumentException("Warming up needs at least one run.");
+    }
+    final InterpreterWarmUp warmUp = new InterpreterWarmUp(runs, inference, executor);
+    warmUp.scheduleRun();
+    return warmUp.result;
+  }
+
+  private void scheduleRun() {
+    try {
+      executor.execute(this::run);
+    } catch (final RejectedExecutionException e) {
+      LOGGER.w("Warm-up stopped after %d of %d runs", completedRuns, runs);
+      result.run();
+    }
+  }
+
+  private void run() {
+    final long startTime = SystemClock.elapsedRealtimeNanos();
+    try {
+      inference.run();
+    } catch (final RuntimeException e) {
+      failure = e;
+      result.run();
+      return;
+    }
+    final long elapsed = SystemClock.elapsedRealtimeNanos() - startTime;
+    if (completedRuns == 0) {
+      coldNanos = elapsed;
+    } else {
+      warmNanos += elapsed;
+    }
+    if (++completedRuns < runs) {
+      scheduleRun();
+    } else {
+      result.run();
+    }
+  }
+
+  private Stats finish() {
+    if (failure != null) {
+      throw failure;
+    }
+    final Stats stats =
+        new Stats(
+            completedRuns, coldNanos, completedRuns > 1 ? warmNanos / (completedRuns - 1) : 0);
+    LOGGER.i("Warmed up interpreter: %s", stats);
+    return stats;
+  }
+}
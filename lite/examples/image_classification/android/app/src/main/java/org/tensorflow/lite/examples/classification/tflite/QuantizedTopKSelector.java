@@ -0,0 +1,80 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.classification.tflite;
+
+import java.util.Arrays;
+
+/**
+ * Finds the indices of the K highest uint8 scores with a counting selection: one pass builds a
+ * histogram of the 256 possible values, which gives the smallest value that still makes the top K,
+ * and a second pass collects the indices at or above it. Both passes are linear in the number of
+ * scores and need no comparisons between them.
+ *
+ * <p>Equal scores rank the lower index first.
+ */
+final class QuantizedTopKSelector {
+  private final int[] histogram = new int[256];
+
+  /**
+   * Selects the best of the first {@code count} scores, interpreted as unsigned bytes.
+   *
+   * @param topIndices Receives the indices of the best scores, best first. Its length is K.
+   * @return The number of selected indices, min(K, count).
+   */
+  int select(final byte[] scores, final int count, final int[] topIndices) {
+    final int k = Math.min(topIndices.length, count);
+    if (k == 0) {
+      return 0;
+    }
+
+    Arrays.fill(histogram, 0);
+    for (int i = 0; i < count; ++i) {
+      histogram[scores[i] & 0xff]++;
+    }
+    // The value of the K-th best score, and how many scores of that value make the cut.
+    int threshold = 255;
+    int remaining = k;
+    while (histogram[threshold] < remaining) {
+      remaining -= histogram[threshold];
+      --threshold;
+    }
+
+    int selected = 0;
+    for (int i = 0; i < count && selected < k; ++i) {
+      final int value = scores[i] & 0xff;
+      if (value > threshold) {
+        topIndices[selected++] = i;
+      } else if (value == threshold && remaining > 0) {
+        topIndices[selected++] = i;
+        --remaining;
+      }
+    }
+
+    // K is small, so an insertion sort of the winners is enough. It keeps equal scores in index
+    // order.
+    for (int i = 1; i < k; ++i) {
+      final int index = topIndices[i];
+      final int value = scores[index] & 0xff;
+      int j = i - 1;
+      while (j >= 0 && (scores[topIndices[j]] & 0xff) < value) {
+        topIndices[j + 1] = topIndices[j];
+        --j;
+      }
+      topIndices[j + 1] = index;
+    }
+    return k;
+  }
+}
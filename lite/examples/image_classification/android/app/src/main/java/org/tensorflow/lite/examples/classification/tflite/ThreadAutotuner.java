@@ -0,0 +1,391 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.classification.tflite;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import org.tensorflow.lite.examples.classification.env.Logger;
+
+/**
+ * Picks the number of interpreter threads for a model by timing synthetic inferences with every
+ * thread count, since the best count depends on the model and on the cores of the device. The
+ * choice is saved per model hash, so later launches reuse it without measuring again.
+ *
+ * <p>Afterwards the tuner watches the latency of real inferences, against the latency they had
+ * right after tuning. When it drifts, e.g. because the device throttles or other apps compete for
+ * the cores, the tuner tries every thread count again on the following real inferences, which keep
+ * running meanwhile, and keeps the fastest. Drift is not checked for {@link #COOLDOWN_MILLIS} after
+ * tuning, so that a short disturbance does not set off tuning after tuning.
+ */
+public final class ThreadAutotuner {
+  private static final Logger LOGGER = new Logger();
+
+  private static final String PREFERENCES_NAME = "thread_autotuner";
+
+  // Candidates whose median latency is within this factor of the best one are ranked by their
+  // 95th percentile instead, preferring steady latency over a marginally faster median.
+  private static final float MEDIAN_TOLERANCE = 1.05f;
+
+  // Tuning is due again when the median of the recent inferences moves by this factor.
+  private static final float DRIFT_FACTOR = 1.5f;
+
+  // The number of recent inferences compared with the latency after tuning.
+  private static final int DRIFT_WINDOW = 50;
+
+  /** How long after tuning the latency is left to settle before drift is checked again. */
+  public static final long COOLDOWN_MILLIS = 30_000;
+
+  /** A model whose thread count can be tuned. */
+  public interface Target {
+    /** Returns a hash identifying the model, see {@link AssetCache#getModelHash}. */
+    String getModelHash();
+
+    /** Sets the number of threads used by the following inferences. */
+    void setNumThreads(int numThreads);
+
+    /**
+     * Runs one inference on synthetic input. It must synchronize with any other inference.
+     *
+     * @return False if the target was closed, so that nothing ran.
+     */
+    boolean runSyntheticInference();
+  }
+
+  /** The thread count picked for a model, and its latency. */
+  public static final class Result {
+    private final String modelHash;
+    private final int numThreads;
+    private final long medianNanos;
+    private final long p95Nanos;
+    private final boolean measured;
+
+    private Result(
+        final String modelHash,
+        final int numThreads,
+        final long medianNanos,
+        final long p95Nanos,
+        final boolean measured) {
+      this.modelHash = modelHash;
+      this.numThreads = numThreads;
+      this.medianNanos = medianNanos;
+      this.p95Nanos = p95Nanos;
+      this.measured = measured;
+    }
+
+    public String getModelHash() {
+      return modelHash;
+    }
+
+    public int getNumThreads() {
+      return numThreads;
+    }
+
+    /**
+     * Returns the median latency of an inference with {@link #getNumThreads()}: of a synthetic
+     * inference, or of a real one if the tuning followed a drift.
+     */
+    public long getMedianNanos() {
+      return medianNanos;
+    }
+
+    /** Returns the 95th percentile latency, measured like {@link #getMedianNanos()}. */
+    public long getP95Nanos() {
+      return p95Nanos;
+    }
+
+    /** Returns true if the result was measured now, false if it was saved by an earlier tuning. */
+    public boolean isMeasured() {
+      return measured;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "model %s: %d threads, p50 %.2f ms, p95 %.2f ms (%s)",
+          modelHash,
+          numThreads,
+          medianNanos / 1e6f,
+          p95Nanos / 1e6f,
+          measured ? "measured" : "saved");
+    }
+  }
+
+  private final SharedPreferences preferences;
+  private final int maxThreads;
+  private final int runsPerCount;
+
+  private volatile Result result;
+  private volatile boolean stopped;
+
+  // The latencies of the recent inferences, and the median of the first window after tuning, or 0
+  // until it is known. Drift is not checked before baselineAfterMillis.
+  private final long[] recentNanos = new long[DRIFT_WINDOW];
+  private final long[] sortedNanos = new long[DRIFT_WINDOW];
+  private int recentCount;
+  private long baselineNanos;
+  private long baselineAfterMillis;
+
+  // The thread count being tried on real inferences after a drift, or 0, and its latencies. The
+  // first inference with each count starts the interpreter's threads and is not recorded.
+  private int probeThreads;
+  private int probeCount = -1;
+  private final long[] probeNanos;
+  private final long[] probeMedians;
+  private final long[] probeP95s;
+
+  /**
+   * @param context Used to save the results.
+   * @param maxThreads The largest thread count to try. Counts above the number of cores are not
+   *     tried.
+   * @param runsPerCount The number of inferences to time per thread count.
+   */
+  public ThreadAutotuner(final Context context, final int maxThreads, final int runsPerCount) {
+    if (maxThreads < 1 || runsPerCount < 1) {
+      throw new IllegalArgumentException("Tuning needs at least one thread count and run.");
+    }
+    this.preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    this.maxThreads = Math.min(maxThreads, Runtime.getRuntime().availableProcessors());
+    this.runsPerCount = runsPerCount;
+    probeNanos = new long[runsPerCount];
+    probeMedians = new long[this.maxThreads + 1];
+    probeP95s = new long[this.maxThreads + 1];
+  }
+
+  /**
+   * Starts tuning {@code target} on a background thread, and applies the result to it.
+   *
+   * @param previous Work on the target to wait for first, e.g. its warm-up, or null.
+   * @param saveResult Whether to save a measured result for later launches. False if other
+   *     inferences compete with the measurement for the cores, so that it may be skewed.
+   * @return Completes with the result once the target uses it.
+   */
+  Future<Result> start(final Target target, final Future<?> previous, final boolean saveResult) {
+    final FutureTask<Result> task =
+        new FutureTask<>(
+            () -> {
+              if (previous != null) {
+                try {
+                  previous.get();
+                } catch (ExecutionException e) {
+                  // Then tuning runs the first inferences; the latency of the first is ignored.
+                }
+              }
+              return tune(target, false, saveResult);
+            });
+    new Thread(task, "thread-autotuner").start();
+    return task;
+  }
+
+  /**
+   * Tunes {@code target} on the calling thread, and applies the result to it.
+   *
+   * @param remeasure Whether to measure again even if a result was saved for the model.
+   */
+  public Result tune(final Target target, final boolean remeasure) {
+    return tune(target, remeasure, true);
+  }
+
+  private Result tune(final Target target, final boolean remeasure, final boolean saveResult) {
+    final String modelHash = target.getModelHash();
+    Result tuned = remeasure ? null : load(modelHash);
+    if (tuned == null) {
+      tuned = measure(target, modelHash);
+      if (saveResult) {
+        save(tuned);
+      }
+    }
+    if (!stopped) {
+      target.setNumThreads(tuned.getNumThreads());
+    }
+    synchronized (this) {
+      result = tuned;
+      probeThreads = 0;
+      resetBaseline();
+    }
+    LOGGER.i("Tuned thread count for %s", tuned);
+    return tuned;
+  }
+
+  /**
+   * Stops applying results and asking for tuning, e.g. once the thread count is set by hand. A
+   * tuning in progress still completes and saves its result.
+   */
+  public void stop() {
+    stopped = true;
+  }
+
+  /** Returns the result of the last tuning, or null if there was none yet. */
+  public Result getResult() {
+    return result;
+  }
+
+  /**
+   * Records the latency of an inference on real input. When the recent latency drifted away from
+   * the one after tuning, this sets the thread counts to try on {@code target} for the following
+   * inferences, one after the other, and then the fastest. Called with the lock of the inferences
+   * held, once tuning is done.
+   */
+  public synchronized void recordLatency(final Target target, final long nanos) {
+    if (result == null || stopped) {
+      return;
+    }
+    if (probeThreads > 0) {
+      recordProbe(target, nanos);
+      return;
+    }
+    if (SystemClock.elapsedRealtime() < baselineAfterMillis) {
+      return;
+    }
+    recentNanos[recentCount] = nanos;
+    if (++recentCount < DRIFT_WINDOW) {
+      return;
+    }
+    // Compare the next window afresh.
+    recentCount = 0;
+    System.arraycopy(recentNanos, 0, sortedNanos, 0, DRIFT_WINDOW);
+    Arrays.sort(sortedNanos);
+    final long median = sortedNanos[DRIFT_WINDOW / 2];
+    if (baselineNanos == 0) {
+      baselineNanos = median;
+      LOGGER.d("Inference latency after tuning: %.2f ms", median / 1e6f);
+    } else if (median > baselineNanos * DRIFT_FACTOR || median * DRIFT_FACTOR < baselineNanos) {
+      LOGGER.i(
+          "Inference latency drifted from %.2f ms to %.2f ms, trying other thread counts",
+          baselineNanos / 1e6f, median / 1e6f);
+      startProbe(target, 1);
+    }
+  }
+
+  private void startProbe(final Target target, final int numThreads) {
+    probeThreads = numThreads;
+    probeCount = -1;
+    target.setNumThreads(numThreads);
+  }
+
+  private void recordProbe(final Target target, final long nanos) {
+    if (probeCount >= 0) {
+      probeNanos[probeCount] = nanos;
+    }
+    if (++probeCount < runsPerCount) {
+      return;
+    }
+    Arrays.sort(probeNanos);
+    probeMedians[probeThreads] = probeNanos[runsPerCount / 2];
+    probeP95s[probeThreads] = probeNanos[(int) Math.ceil(runsPerCount * 0.95) - 1];
+    if (probeThreads < maxThreads) {
+      startProbe(target, probeThreads + 1);
+      return;
+    }
+    probeThreads = 0;
+    final Result tuned = pick(result.getModelHash(), probeMedians, probeP95s);
+    save(tuned);
+    target.setNumThreads(tuned.getNumThreads());
+    result = tuned;
+    resetBaseline();
+    LOGGER.i("Tuned thread count on live inferences for %s", tuned);
+  }
+
+  private void resetBaseline() {
+    recentCount = 0;
+    baselineNanos = 0;
+    baselineAfterMillis = SystemClock.elapsedRealtime() + COOLDOWN_MILLIS;
+  }
+
+  private Result measure(final Target target, final String modelHash) {
+    final long[] nanos = new long[runsPerCount];
+    final long[] medians = new long[maxThreads + 1];
+    final long[] p95s = new long[maxThreads + 1];
+    for (int numThreads = 1; numThreads <= maxThreads; ++numThreads) {
+      target.setNumThreads(numThreads);
+      // The first inference with a new count starts the interpreter's threads.
+      runOrFail(target);
+      for (int i = 0; i < runsPerCount; ++i) {
+        final long startTime = SystemClock.elapsedRealtimeNanos();
+        runOrFail(target);
+        nanos[i] = SystemClock.elapsedRealtimeNanos() - startTime;
+      }
+      Arrays.sort(nanos);
+      medians[numThreads] = nanos[runsPerCount / 2];
+      p95s[numThreads] = nanos[(int) Math.ceil(runsPerCount * 0.95) - 1];
+      LOGGER.d(
+          "%d threads: p50 %.2f ms, p95 %.2f ms",
+          numThreads, medians[numThreads] / 1e6f, p95s[numThreads] / 1e6f);
+    }
+    return pick(modelHash, medians, p95s);
+  }
+
+  /** Picks the thread count from the latencies measured with each, indexed by thread count. */
+  private Result pick(final String modelHash, final long[] medians, final long[] p95s) {
+    long bestMedian = Long.MAX_VALUE;
+    for (int numThreads = 1; numThreads <= maxThreads; ++numThreads) {
+      bestMedian = Math.min(bestMedian, medians[numThreads]);
+    }
+    int bestThreads = 0;
+    long bestP95 = Long.MAX_VALUE;
+    // Fewer threads win ties, leaving the cores to the rest of the app.
+    for (int numThreads = 1; numThreads <= maxThreads; ++numThreads) {
+      if (medians[numThreads] <= bestMedian * MEDIAN_TOLERANCE && p95s[numThreads] < bestP95) {
+        bestThreads = numThreads;
+        bestP95 = p95s[numThreads];
+      }
+    }
+    return new Result(modelHash, bestThreads, medians[bestThreads], bestP95, true);
+  }
+
+  private static void runOrFail(final Target target) {
+    if (!target.runSyntheticInference()) {
+      throw new IllegalStateException("Closed while tuning, nothing to measure.");
+    }
+  }
+
+  private Result load(final String modelHash) {
+    final Result saved = load(preferences, modelHash);
+    return saved != null && saved.getNumThreads() <= maxThreads ? saved : null;
+  }
+
+  private static Result load(final SharedPreferences preferences, final String modelHash) {
+    final String value = preferences.getString(modelHash, null);
+    if (value == null) {
+      return null;
+    }
+    final String[] fields = value.split(",");
+    try {
+      return new Result(
+          modelHash,
+          Integer.parseInt(fields[0]),
+          Long.parseLong(fields[1]),
+          Long.parseLong(fields[2]),
+          false);
+    } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+      LOGGER.w("Ignoring malformed tuning result for %s: %s", modelHash, value);
+      return null;
+    }
+  }
+
+  private void save(final Result result) {
+    preferences
+        .edit()
+        .putString(
+            result.getModelHash(),
+            result.getNumThreads() + "," + result.getMedianNanos() + "," + result.getP95Nanos())
+        .apply();
+  }
+}
@@ -0,0 +1,104 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.classification.tflite;
+
+/**
+ * Finds the indices of the K highest scores without allocating. The K best indices seen so far are
+ * kept in a min-heap, so each score costs one comparison against the weakest of them, and a heap
+ * update only if it beats it.
+ *
+ * <p>Scores are ordered like {@link Float#compare}; equal scores rank the lower index first.
+ */
+final class TopKSelector {
+  /** Indices of the best scores. A min-heap while selecting, sorted best first afterwards. */
+  private final int[] heap;
+
+  private int size;
+
+  TopKSelector(final int k) {
+    if (k < 1) {
+      throw new IllegalArgumentException("Cannot select fewer than one score.");
+    }
+    heap = new int[k];
+  }
+
+  /**
+   * Selects the best of the first {@code count} scores.
+   *
+   * @return The number of selected indices, min(K, count).
+   */
+  int select(final float[] scores, final int count) {
+    size = 0;
+    for (int i = 0; i < count; ++i) {
+      if (size < heap.length) {
+        heap[size] = i;
+        siftUp(scores, size++);
+      } else if (isWorse(scores, heap[0], i)) {
+        heap[0] = i;
+        siftDown(scores, 0, size);
+      }
+    }
+    // Heap sort: moving the weakest index to the back each time leaves the best one first.
+    for (int end = size - 1; end > 0; --end) {
+      swap(0, end);
+      siftDown(scores, 0, end);
+    }
+    return size;
+  }
+
+  /** Returns the index of the {@code rank}-th best score of the last selection, best first. */
+  int getIndex(final int rank) {
+    return heap[rank];
+  }
+
+  private static boolean isWorse(final float[] scores, final int a, final int b) {
+    final int order = Float.compare(scores[a], scores[b]);
+    return order < 0 || (order == 0 && a > b);
+  }
+
+  private void siftUp(final float[] scores, int child) {
+    while (child > 0) {
+      final int parent = (child - 1) / 2;
+      if (!isWorse(scores, heap[child], heap[parent])) {
+        return;
+      }
+      swap(child, parent);
+      child = parent;
+    }
+  }
+
+  private void siftDown(final float[] scores, int parent, final int end) {
+    while (true) {
+      final int left = 2 * parent + 1;
+      if (left >= end) {
+        return;
+      }
+      final int right = left + 1;
+      final int weakest = right < end && isWorse(scores, heap[right], heap[left]) ? right : left;
+      if (!isWorse(scores, heap[weakest], heap[parent])) {
+        return;
+      }
+      swap(parent, weakest);
+      parent = weakest;
+    }
+  }
+
+  private void swap(final int a, final int b) {
+    final int tmp = heap[a];
+    heap[a] = heap[b];
+    heap[b] = tmp;
+  }
+}
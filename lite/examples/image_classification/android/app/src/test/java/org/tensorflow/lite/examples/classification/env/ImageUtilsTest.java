@@ -0,0 +1,125 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.classification.env;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+import org.junit.Test;
+import org.tensorflow.lite.examples.classification.env.ImageUtils.YuvConversionMode;
+
+/** Checks the YUV conversions against the fixed point formula of the original implementation. */
+public final class ImageUtilsTest {
+  // Every frame holds all luma values for 256 U values and one V value, four lumas per 2x2 block.
+  private static final int FRAME_SIZE = 256;
+  private static final int BLOCKS_PER_ROW = FRAME_SIZE / 2;
+  private static final int BLOCKS_PER_U = 256 / 4;
+  // 2^18 - 1, the largest channel value of the fixed point formula.
+  private static final int MAX_CHANNEL_VALUE = 262143;
+
+  @Test
+  public void matchesFormulaForEveryYuvTriple() {
+    final byte[] frame = new byte[ImageUtils.getYUVByteSize(FRAME_SIZE, FRAME_SIZE)];
+    final int[] argb = new int[FRAME_SIZE * FRAME_SIZE];
+    for (int v = 0; v < 256; ++v) {
+      fillFrame(frame, v);
+      for (final YuvConversionMode mode : YuvConversionMode.values()) {
+        convert(frame, FRAME_SIZE, FRAME_SIZE, mode, argb);
+        for (int row = 0; row < FRAME_SIZE; ++row) {
+          for (int column = 0; column < FRAME_SIZE; ++column) {
+            final int block = (row / 2) * BLOCKS_PER_ROW + column / 2;
+            final int u = block / BLOCKS_PER_U;
+            final int y = 0xff & frame[row * FRAME_SIZE + column];
+            final int expected = yuvToArgb(y, u, v);
+            final int actual = argb[row * FRAME_SIZE + column];
+            if (actual != expected) {
+              fail(
+                  String.format(
+                      "%s, YUV (%d, %d, %d): expected %08x, got %08x",
+                      mode, y, u, v, expected, actual));
+            }
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void lookupTableMatchesFormulaForFrames() {
+    final Random random = new Random(42);
+    // Odd sizes cover the last column and row, which have no chroma pair of their own.
+    final int[][] sizes = {{320, 240}, {33, 17}, {1, 1}};
+    for (final int[] size : sizes) {
+      final int width = size[0];
+      final int height = size[1];
+      final byte[] frame = new byte[ImageUtils.getYUVByteSize(width, height)];
+      random.nextBytes(frame);
+      final int[] expected = new int[width * height];
+      final int[] actual = new int[width * height];
+      convert(frame, width, height, YuvConversionMode.ARITHMETIC, expected);
+      convert(frame, width, height, YuvConversionMode.LOOKUP_TABLE, actual);
+      assertArrayEquals(expected, actual);
+    }
+  }
+
+  /** Lays out an NV21 frame whose 2x2 blocks hold every luma for every U, with chroma V. */
+  private static void fillFrame(final byte[] frame, final int v) {
+    final int lumaSize = FRAME_SIZE * FRAME_SIZE;
+    for (int blockRow = 0; blockRow < FRAME_SIZE / 2; ++blockRow) {
+      for (int blockColumn = 0; blockColumn < BLOCKS_PER_ROW; ++blockColumn) {
+        final int block = blockRow * BLOCKS_PER_ROW + blockColumn;
+        final int y = (block % BLOCKS_PER_U) * 4;
+        final int topLeft = 2 * blockRow * FRAME_SIZE + 2 * blockColumn;
+        frame[topLeft] = (byte) y;
+        frame[topLeft + 1] = (byte) (y + 1);
+        frame[topLeft + FRAME_SIZE] = (byte) (y + 2);
+        frame[topLeft + FRAME_SIZE + 1] = (byte) (y + 3);
+        final int chroma = lumaSize + blockRow * FRAME_SIZE + 2 * blockColumn;
+        frame[chroma] = (byte) v;
+        frame[chroma + 1] = (byte) (block / BLOCKS_PER_U);
+      }
+    }
+  }
+
+  private static void convert(
+      final byte[] frame,
+      final int width,
+      final int height,
+      final YuvConversionMode mode,
+      final int[] argb) {
+    final YuvConversionMode previous = ImageUtils.getYuvConversionMode();
+    ImageUtils.setYuvConversionMode(mode);
+    try {
+      ImageUtils.convertYUV420SPToARGB8888(frame, width, height, argb);
+    } finally {
+      ImageUtils.setYuvConversionMode(previous);
+    }
+  }
+
+  /** The fixed point conversion ImageUtils used before the lookup tables. */
+  private static int yuvToArgb(final int y, final int u, final int v) {
+    final int y1192 = 1192 * Math.max(y - 16, 0);
+    final int r = clamp(y1192 + 1634 * (v - 128));
+    final int g = clamp(y1192 - 833 * (v - 128) - 400 * (u - 128));
+    final int b = clamp(y1192 + 2066 * (u - 128));
+    return 0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
+  }
+
+  private static int clamp(final int value) {
+    return Math.min(Math.max(value, 0), MAX_CHANNEL_VALUE);
+  }
+}
@@ -0,0 +1,178 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.classification.tflite;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Checks {@link TopKSelector} and {@link QuantizedTopKSelector} against the PriorityQueue ranking
+ * the classifier used before them.
+ */
+public final class TopKSelectorTest {
+  private static final int ITERATIONS = 5000;
+  private static final int MAX_LABELS = 1001;
+  private static final int MAX_K = 5;
+
+  @Test
+  public void matchesPriorityQueueOnRandomScores() {
+    final Random random = new Random(42);
+    for (int iteration = 0; iteration < ITERATIONS; ++iteration) {
+      final float[] scores = new float[1 + random.nextInt(MAX_LABELS)];
+      for (int i = 0; i < scores.length; ++i) {
+        scores[i] = random.nextFloat();
+      }
+      checkFloat(scores, scores.length, 1 + random.nextInt(MAX_K));
+    }
+  }
+
+  @Test
+  public void ranksTiesByIndex() {
+    final Random random = new Random(42);
+    for (int iteration = 0; iteration < ITERATIONS; ++iteration) {
+      // A handful of distinct values, so that most scores tie with others.
+      final float[] scores = new float[1 + random.nextInt(MAX_LABELS)];
+      for (int i = 0; i < scores.length; ++i) {
+        scores[i] = random.nextInt(4) / 4f;
+      }
+      checkFloat(scores, scores.length, 1 + random.nextInt(MAX_K));
+    }
+    checkFloat(new float[] {0.5f, 0.5f, 0.5f, 0.5f}, 4, 3);
+  }
+
+  @Test
+  public void selectsAllScoresWhenKExceedsCount() {
+    checkFloat(new float[] {0.1f, 0.7f}, 2, 5);
+    checkFloat(new float[] {0.3f}, 1, 3);
+    // Scores past the count are ignored.
+    checkFloat(new float[] {0.1f, 0.2f, 0.9f}, 2, 3);
+  }
+
+  @Test
+  public void selectsNothingFromNoScores() {
+    final TopKSelector selector = new TopKSelector(3);
+    assertEquals(0, selector.select(new float[0], 0));
+    assertEquals(0, selector.select(new float[] {1f}, 0));
+  }
+
+  @Test
+  public void reusesSelectorAcrossCalls() {
+    final TopKSelector selector = new TopKSelector(2);
+    assertEquals(2, selector.select(new float[] {0.1f, 0.9f, 0.5f}, 3));
+    assertEquals(1, selector.select(new float[] {0.4f}, 1));
+    assertEquals(0, selector.getIndex(0));
+  }
+
+  @Test
+  public void quantizedMatchesPriorityQueueOnRandomScores() {
+    final Random random = new Random(42);
+    for (int iteration = 0; iteration < ITERATIONS; ++iteration) {
+      final byte[] scores = new byte[1 + random.nextInt(MAX_LABELS)];
+      random.nextBytes(scores);
+      checkQuantized(scores, scores.length, 1 + random.nextInt(MAX_K));
+    }
+  }
+
+  @Test
+  public void quantizedRanksTiesByIndex() {
+    final Random random = new Random(42);
+    for (int iteration = 0; iteration < ITERATIONS; ++iteration) {
+      final byte[] scores = new byte[1 + random.nextInt(MAX_LABELS)];
+      for (int i = 0; i < scores.length; ++i) {
+        // Includes values above 127, which are negative as signed bytes.
+        scores[i] = (byte) (random.nextInt(4) * 85);
+      }
+      checkQuantized(scores, scores.length, 1 + random.nextInt(MAX_K));
+    }
+  }
+
+  @Test
+  public void quantizedSelectsAllScoresWhenKExceedsCount() {
+    checkQuantized(new byte[] {10, (byte) 200}, 2, 5);
+    checkQuantized(new byte[] {10, 20, (byte) 255}, 2, 3);
+  }
+
+  @Test
+  public void quantizedSelectsNothingFromNoScores() {
+    final QuantizedTopKSelector selector = new QuantizedTopKSelector();
+    assertEquals(0, selector.select(new byte[0], 0, new int[3]));
+    assertEquals(0, selector.select(new byte[] {1}, 0, new int[3]));
+  }
+
+  private static void checkFloat(final float[] scores, final int count, final int k) {
+    final TopKSelector selector = new TopKSelector(k);
+    final int selected = selector.select(scores, count);
+    final int[] actual = new int[selected];
+    for (int i = 0; i < selected; ++i) {
+      actual[i] = selector.getIndex(i);
+    }
+    check(scores, count, k, actual);
+  }
+
+  private static void checkQuantized(final byte[] scores, final int count, final int k) {
+    final int[] topIndices = new int[k];
+    final int selected = new QuantizedTopKSelector().select(scores, count, topIndices);
+    // The classifier used to rank the dequantized probabilities.
+    final float[] probabilities = new float[scores.length];
+    for (int i = 0; i < scores.length; ++i) {
+      probabilities[i] = (scores[i] & 0xff) / 255.0f;
+    }
+    check(probabilities, count, k, Arrays.copyOf(topIndices, selected));
+  }
+
+  /**
+   * The old ranking polls the scores in the same order, but breaks ties arbitrarily. The selectors
+   * rank the lower index first, which a queue ordered by index as well reproduces.
+   */
+  private static void check(
+      final float[] scores, final int count, final int k, final int[] actual) {
+    final PriorityQueue<Integer> byScore =
+        new PriorityQueue<>(Math.max(1, count), (a, b) -> Float.compare(scores[b], scores[a]));
+    final PriorityQueue<Integer> byScoreThenIndex =
+        new PriorityQueue<>(
+            Math.max(1, count),
+            (a, b) -> {
+              final int order = Float.compare(scores[b], scores[a]);
+              return order != 0 ? order : Integer.compare(a, b);
+            });
+    for (int i = 0; i < count; ++i) {
+      byScore.add(i);
+      byScoreThenIndex.add(i);
+    }
+    final int expectedSize = Math.min(k, count);
+    final float[] expectedScores = new float[expectedSize];
+    final int[] expectedIndices = new int[expectedSize];
+    for (int i = 0; i < expectedSize; ++i) {
+      expectedScores[i] = scores[byScore.poll()];
+      expectedIndices[i] = byScoreThenIndex.poll();
+    }
+
+    final float[] actualScores = new float[actual.length];
+    for (int i = 0; i < actual.length; ++i) {
+      actualScores[i] = scores[actual[i]];
+    }
+    if (!Arrays.equals(expectedScores, actualScores) || !Arrays.equals(expectedIndices, actual)) {
+      final String input = Arrays.toString(Arrays.copyOf(scores, count)) + ", K " + k;
+      assertEquals(input, Arrays.toString(expectedScores), Arrays.toString(actualScores));
+      assertArrayEquals(input, expectedIndices, actual);
+    }
+  }
+}
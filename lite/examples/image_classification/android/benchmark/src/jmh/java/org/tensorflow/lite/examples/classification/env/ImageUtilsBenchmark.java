@@ -0,0 +1,211 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.classification.env;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.tensorflow.lite.examples.classification.env.ImageUtils.YuvConversionMode;
+
+/**
+ * Measures the YUV to ARGB conversions in {@link ImageUtils}. Besides the time per frame, every
+ * benchmark reports a secondary "pixels" result, which is the time per converted pixel.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ImageUtilsBenchmark {
+  @Param({"320x240", "640x480", "1280x720", "1920x1080"})
+  public String frameSize;
+
+  @Param({"ARITHMETIC", "LOOKUP_TABLE"})
+  public YuvConversionMode mode;
+
+  private int width;
+  private int height;
+  private int[] argb;
+  private byte[] yuv420sp;
+
+  /** Counts converted pixels, so that JMH also reports the time per pixel. */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class PixelCounter {
+    public long pixels;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      pixels = 0;
+    }
+  }
+
+  /** The planes of a YUV_420_888 frame, as delivered by the Camera2 API. */
+  @State(Scope.Thread)
+  public static class Planes {
+    // I420 has separate chroma planes, NV21 interleaves them with a pixel stride of 2.
+    @Param({"I420", "NV21"})
+    public String layout;
+
+    int yRowStride;
+    int uvRowStride;
+    int uvPixelStride;
+    byte[] y;
+    byte[] u;
+    byte[] v;
+    ByteBuffer yBuffer;
+    ByteBuffer uBuffer;
+    ByteBuffer vBuffer;
+
+    @Setup
+    public void setup(final ImageUtilsBenchmark frame) {
+      final int width = frame.width;
+      final int height = frame.height;
+      final Random random = new Random(0);
+      yRowStride = width;
+      y = new byte[yRowStride * height];
+      random.nextBytes(y);
+      yBuffer = toDirectBuffer(y);
+
+      final int chromaRows = (height + 1) / 2;
+      if ("NV21".equals(layout)) {
+        uvPixelStride = 2;
+        uvRowStride = width;
+        final byte[] vu = new byte[uvRowStride * chromaRows + 1];
+        random.nextBytes(vu);
+        v = vu;
+        u = new byte[vu.length - 1];
+        System.arraycopy(vu, 1, u, 0, u.length);
+        // Like Camera2, expose the interleaved plane as two overlapping buffers.
+        final ByteBuffer vuBuffer = toDirectBuffer(vu);
+        vBuffer = vuBuffer.duplicate();
+        vuBuffer.position(1);
+        uBuffer = vuBuffer.slice();
+      } else {
+        uvPixelStride = 1;
+        uvRowStride = (width + 1) / 2;
+        u = new byte[uvRowStride * chromaRows];
+        v = new byte[uvRowStride * chromaRows];
+        random.nextBytes(u);
+        random.nextBytes(v);
+        uBuffer = toDirectBuffer(u);
+        vBuffer = toDirectBuffer(v);
+      }
+    }
+  }
+
+  /** A parallel converter, capped at the given number of threads. */
+  @State(Scope.Thread)
+  public static class Parallel {
+    @Param({"2", "4"})
+    public int maxParallelism;
+
+    ParallelYuvConverter converter;
+
+    @Setup
+    public void setup() {
+      converter = new ParallelYuvConverter(maxParallelism);
+    }
+
+    @TearDown
+    public void tearDown() {
+      converter.close();
+    }
+  }
+
+  @Setup
+  public void setup() {
+    final String[] dimensions = frameSize.split("x");
+    width = Integer.parseInt(dimensions[0]);
+    height = Integer.parseInt(dimensions[1]);
+    argb = new int[width * height];
+    yuv420sp = new byte[ImageUtils.getYUVByteSize(width, height)];
+    new Random(0).nextBytes(yuv420sp);
+    ImageUtils.setYuvConversionMode(mode);
+  }
+
+  @Benchmark
+  public int[] convertYUV420SP(final PixelCounter counter) {
+    ImageUtils.convertYUV420SPToARGB8888(yuv420sp, width, height, argb);
+    counter.pixels += argb.length;
+    return argb;
+  }
+
+  @Benchmark
+  public int[] convertYUV420(final Planes planes, final PixelCounter counter) {
+    ImageUtils.convertYUV420ToARGB8888(
+        planes.y,
+        planes.u,
+        planes.v,
+        width,
+        height,
+        planes.yRowStride,
+        planes.uvRowStride,
+        planes.uvPixelStride,
+        argb);
+    counter.pixels += argb.length;
+    return argb;
+  }
+
+  @Benchmark
+  public int[] convertYUV420Buffers(final Planes planes, final PixelCounter counter) {
+    ImageUtils.convertYUV420ToARGB8888(
+        planes.yBuffer,
+        planes.uBuffer,
+        planes.vBuffer,
+        width,
+        height,
+        planes.yRowStride,
+        planes.uvRowStride,
+        planes.uvPixelStride,
+        argb);
+    counter.pixels += argb.length;
+    return argb;
+  }
+
+  @Benchmark
+  public int[] convertYUV420BuffersParallel(
+      final Planes planes, final Parallel parallel, final PixelCounter counter) {
+    parallel.converter.convertYUV420ToARGB8888(
+        planes.yBuffer,
+        planes.uBuffer,
+        planes.vBuffer,
+        width,
+        height,
+        planes.yRowStride,
+        planes.uvRowStride,
+        planes.uvPixelStride,
+        argb);
+    counter.pixels += argb.length;
+    return argb;
+  }
+
+  private static ByteBuffer toDirectBuffer(final byte[] bytes) {
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+    buffer.put(bytes);
+    buffer.rewind();
+    return buffer;
+  }
+}
@@ -0,0 +1,80 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.classification.env;
+
+import android.util.Log;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares the cost of a disabled log message written the ways the apps write them every frame. The
+ * gc profiler shows what each way allocates: concatenating allocates the message anyway, varargs
+ * box the arguments into an array, and the overloads with one or two arguments allocate nothing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class LoggerBenchmark {
+  private Logger logger;
+  private long timestamp;
+  private final Object location = new Object();
+
+  @Setup
+  public void setup() {
+    logger = new Logger();
+    // The API stubs cannot look up the level of the tag, so disable it here.
+    logger.setTagLogLevel(Log.ASSERT + 1);
+    logger.setMinLogLevel(Log.INFO);
+    // Beyond the cache of boxed longs.
+    timestamp = 1 << 20;
+  }
+
+  @Benchmark
+  public long concatenated() {
+    logger.v("Preparing image " + ++timestamp + " for detection in bg thread.");
+    return timestamp;
+  }
+
+  @Benchmark
+  public long varargs() {
+    logger.v("Preparing image %d of %d at %s", ++timestamp, timestamp, location);
+    return timestamp;
+  }
+
+  @Benchmark
+  public long primitive() {
+    logger.v("Preparing image %d for detection in bg thread.", ++timestamp);
+    return timestamp;
+  }
+
+  @Benchmark
+  public long primitivePair() {
+    logger.v("Preparing image %d of %d", ++timestamp, timestamp);
+    return timestamp;
+  }
+
+  @Benchmark
+  public long objectPair() {
+    logger.v("Result! Frame: %s mapped to screen: %s", location, location);
+    return ++timestamp;
+  }
+}
@@ -0,0 +1,177 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.classification.env;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares the tiled {@link ImageUtils#rotate} kernels with sampling every output pixel through the
+ * inverse rotation, which is what drawing through a rotating Matrix amounts to.
+ * android.graphics.Matrix and Canvas need the Android runtime, so the Matrix path is reproduced
+ * here with the same affine arithmetic.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class RotationBenchmark {
+  private static final int CROP_SIZE = 224;
+
+  @Param({"640x480", "1280x720", "1920x1080"})
+  public String frameSize;
+
+  @Param({"90", "180", "270"})
+  public int rotation;
+
+  private int width;
+  private int height;
+  private int[] argb;
+  private int[] rotatedArgb;
+  private byte[] luma;
+  private byte[] rotatedLuma;
+  // Values of the rotated to frame transform, laid out as by Matrix.getValues().
+  private float[] inverse;
+  private int[] crop;
+  // Center crops into CROP_SIZE x CROP_SIZE, from the frame or from the rotated frame.
+  private ImageResampler frameToCrop;
+  private ImageResampler rotatedToCrop;
+
+  @Setup
+  public void setup() {
+    final String[] dimensions = frameSize.split("x");
+    width = Integer.parseInt(dimensions[0]);
+    height = Integer.parseInt(dimensions[1]);
+    final Random random = new Random(0);
+    argb = new int[width * height];
+    rotatedArgb = new int[width * height];
+    for (int i = 0; i < argb.length; i++) {
+      argb[i] = random.nextInt();
+    }
+    luma = new byte[width * height];
+    rotatedLuma = new byte[width * height];
+    random.nextBytes(luma);
+
+    switch (rotation) {
+      case 90:
+        inverse = new float[] {0, 1, 0, -1, 0, height, 0, 0, 1};
+        break;
+      case 180:
+        inverse = new float[] {-1, 0, width, 0, -1, height, 0, 0, 1};
+        break;
+      default:
+        inverse = new float[] {0, -1, width, 1, 0, 0, 0, 0, 1};
+        break;
+    }
+
+    final boolean transpose = rotation % 180 != 0;
+    final int rotatedWidth = transpose ? height : width;
+    final int rotatedHeight = transpose ? width : height;
+    final float scale = Math.min(rotatedWidth, rotatedHeight) / (float) CROP_SIZE;
+    final float[] cropToRotated = {
+      scale,
+      0,
+      (rotatedWidth - scale * CROP_SIZE) / 2,
+      0,
+      scale,
+      (rotatedHeight - scale * CROP_SIZE) / 2,
+      0,
+      0,
+      1
+    };
+    crop = new int[CROP_SIZE * CROP_SIZE];
+    frameToCrop =
+        new ImageResampler(
+            width,
+            height,
+            concat(inverse, cropToRotated),
+            CROP_SIZE,
+            CROP_SIZE,
+            ImageResampler.Mode.BILINEAR);
+    rotatedToCrop =
+        new ImageResampler(
+            rotatedWidth,
+            rotatedHeight,
+            cropToRotated,
+            CROP_SIZE,
+            CROP_SIZE,
+            ImageResampler.Mode.BILINEAR);
+  }
+
+  /** Returns the affine transform that applies {@code second} and then {@code first}. */
+  private static float[] concat(final float[] first, final float[] second) {
+    return new float[] {
+      first[0] * second[0] + first[1] * second[3],
+      first[0] * second[1] + first[1] * second[4],
+      first[0] * second[2] + first[1] * second[5] + first[2],
+      first[3] * second[0] + first[4] * second[3],
+      first[3] * second[1] + first[4] * second[4],
+      first[3] * second[2] + first[4] * second[5] + first[5],
+      0,
+      0,
+      1
+    };
+  }
+
+  @Benchmark
+  public int[] rotateArgbTiled() {
+    ImageUtils.rotate(argb, width, height, rotation, rotatedArgb);
+    return rotatedArgb;
+  }
+
+  @Benchmark
+  public byte[] rotateLumaTiled() {
+    ImageUtils.rotate(luma, width, height, rotation, rotatedLuma);
+    return rotatedLuma;
+  }
+
+  @Benchmark
+  public int[] rotateArgbMatrix() {
+    final boolean transpose = rotation % 180 != 0;
+    final int outWidth = transpose ? height : width;
+    final int outHeight = transpose ? width : height;
+    for (int j = 0, o = 0; j < outHeight; j++) {
+      for (int i = 0; i < outWidth; i++, o++) {
+        final float x = i + 0.5f;
+        final float y = j + 0.5f;
+        final int fx = (int) Math.floor(inverse[0] * x + inverse[1] * y + inverse[2]);
+        final int fy = (int) Math.floor(inverse[3] * x + inverse[4] * y + inverse[5]);
+        rotatedArgb[o] = argb[fy * width + fx];
+      }
+    }
+    return rotatedArgb;
+  }
+
+  @Benchmark
+  public int[] cropRotatedFrame() {
+    frameToCrop.resample(argb, crop);
+    return crop;
+  }
+
+  @Benchmark
+  public int[] cropAfterTiledRotation() {
+    ImageUtils.rotate(argb, width, height, rotation, rotatedArgb);
+    rotatedToCrop.resample(rotatedArgb, crop);
+    return crop;
+  }
+}
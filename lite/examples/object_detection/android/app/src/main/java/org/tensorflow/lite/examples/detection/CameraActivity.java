@@ -20,6 +20,7 @@ import android.Manifest;
 import android.app.Fragment;
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.graphics.Rect;
 import android.hardware.Camera;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCharacteristics;
@@ -33,7 +34,7 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
-import android.os.Trace;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.design.widget.BottomSheetBehavior;
 import android.support.v7.app.AppCompatActivity;
@@ -49,9 +50,26 @@ import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 import android.widget.Toast;
+import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.tensorflow.lite.examples.detection.env.FrameBufferPool;
+import org.tensorflow.lite.examples.detection.env.FrameReader;
+import org.tensorflow.lite.examples.detection.env.FrameRecorder;
 import org.tensorflow.lite.examples.detection.env.ImageUtils;
 import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.ParallelYuvConverter;
+import org.tensorflow.lite.examples.detection.env.Tracer;
+import org.tensorflow.lite.examples.detection.env.YuvToTensorConverter;
 
 public abstract class CameraActivity extends AppCompatActivity
     implements OnImageAvailableListener,
@@ -63,18 +81,56 @@ public abstract class CameraActivity extends AppCompatActivity
   private static final int PERMISSIONS_REQUEST = 1;
 
   private static final String PERMISSION_CAMERA = Manifest.permission.CAMERA;
+
+  // Upper bound on the threads used to convert Camera2 frames, leaving the remaining cores to the
+  // TFLite interpreter.
+  private static final int MAX_CONVERSION_THREADS = 2;
+  // Number of legacy camera preview buffers, so that the camera can fill one while the app holds
+  // another.
+  private static final int PREVIEW_BUFFER_COUNT = 3;
+  // How long the end of a replay waits for its last frame before the camera frames resume.
+  private static final long REPLAY_DRAIN_TIMEOUT_MS = 2000;
+  // Upper bound of the thread count stepper.
+  protected static final int MAX_THREADS = 9;
   protected int previewWidth = 0;
   protected int previewHeight = 0;
   private boolean debug = false;
-  private Handler handler;
+  // Runs inference, and the warming up of the detector.
+  private volatile Handler handler;
   private HandlerThread handlerThread;
+  private final Executor inferenceExecutor =
+      command -> {
+        if (!runInBackground(command)) {
+          throw new RejectedExecutionException("The inference thread is stopped.");
+        }
+      };
   private boolean useCamera2API;
-  private boolean isProcessingFrame = false;
+  private volatile boolean isProcessingFrame = false;
+  // Whether the current frame is in yuvPlanes, rather than in yuvBytes.
+  private boolean planarFrame;
+  // Size and rotation relative to the device of the camera frames, once known.
+  private Size cameraSize;
+  private int cameraRotation;
+  // Rotation last passed to onPreviewSizeChosen(), with previewWidth and previewHeight.
+  private int previewRotation;
+  private volatile FrameRecorder frameRecorder;
+  // The thread replaying a capture file. Camera frames are dropped meanwhile.
+  private final AtomicReference<Thread> replayThread = new AtomicReference<>();
   private byte[][] yuvBytes = new byte[3][];
+  private final FrameBufferPool previewBufferPool = new FrameBufferPool(PREVIEW_BUFFER_COUNT);
+  // Planes of the current Camera2 image, read in place until the image is closed.
+  private ByteBuffer[] yuvPlanes = new ByteBuffer[3];
+  private Image image;
   private int[] rgbBytes = null;
+  // Part of the frame converted by getRgbBytes(), or null for the whole frame.
+  private Rect conversionRegion = null;
+  private int conversionStep = 1;
   private int yRowStride;
+  private int uvRowStride;
+  private int uvPixelStride;
   private Runnable postInferenceCallback;
   private Runnable imageConverter;
+  private ParallelYuvConverter yuvConverter;
 
   private LinearLayout bottomSheetLayout;
   private LinearLayout gestureLayout;
@@ -85,6 +141,8 @@ public abstract class CameraActivity extends AppCompatActivity
   private ImageView plusImageView, minusImageView;
   private SwitchCompat apiSwitchCompat;
   private TextView threadsTextView;
+  // Whether the thread count was set with the stepper, rather than tuned.
+  private boolean numThreadsChosenByUser = false;
 
   @Override
   protected void onCreate(final Bundle savedInstanceState) {
@@ -169,15 +227,49 @@ public abstract class CameraActivity extends AppCompatActivity
     minusImageView.setOnClickListener(this);
   }
 
+  /**
+   * Restricts the conversion done by {@link #getRgbBytes()} to {@code region} of the frame, sampled
+   * every {@code step} pixels. The returned pixels are then stored densely, with {@code
+   * ImageUtils.getSampledLength(region.width(), step)} pixels per row.
+   *
+   * @param region The part of the frame to convert, starting on even coordinates, or null to
+   *     convert the whole frame.
+   * @param step The distance between sampled pixels along both axes.
+   */
+  protected void setConversionRegion(final Rect region, final int step) {
+    conversionRegion = region;
+    conversionStep = region != null ? step : 1;
+  }
+
   protected int[] getRgbBytes() {
     imageConverter.run();
     return rgbBytes;
   }
 
+  /**
+   * Writes the current frame into a model input buffer, sampling it through {@code converter}
+   * instead of converting the whole frame with {@link #getRgbBytes()}.
+   */
+  protected void convertFrameToTensor(final YuvToTensorConverter converter, final ByteBuffer out) {
+    if (planarFrame) {
+      converter.convertYUV420(
+          yuvPlanes[0], yuvPlanes[1], yuvPlanes[2], yRowStride, uvRowStride, uvPixelStride, out);
+      // Nothing reads the planes after this, so hand the buffer back to the camera right away.
+      closeImage();
+    } else {
+      converter.convertYUV420SP(yuvBytes[0], out);
+      recyclePreviewBuffer();
+    }
+  }
+
   protected int getLuminanceStride() {
     return yRowStride;
   }
 
+  /**
+   * Returns the luminance of the current legacy camera frame, or null once the frame has been
+   * converted. Camera2 frames are not copied.
+   */
   protected byte[] getLuminance() {
     return yuvBytes[0];
   }
@@ -185,34 +277,57 @@ public abstract class CameraActivity extends AppCompatActivity
   /** Callback for android.hardware.Camera API */
   @Override
   public void onPreviewFrame(final byte[] bytes, final Camera camera) {
+    previewBufferPool.onFrameReceived(bytes);
+    if (replayThread.get() != null) {
+      previewBufferPool.recycle(bytes);
+      return;
+    }
     if (isProcessingFrame) {
       LOGGER.w("Dropping frame!");
+      previewBufferPool.recycle(bytes);
       return;
     }
 
     try {
       // Initialize the storage bitmaps once when the resolution is known.
-      if (rgbBytes == null) {
+      if (cameraSize == null) {
         Camera.Size previewSize = camera.getParameters().getPreviewSize();
         previewHeight = previewSize.height;
         previewWidth = previewSize.width;
         rgbBytes = new int[previewWidth * previewHeight];
-        onPreviewSizeChosen(new Size(previewSize.width, previewSize.height), 90);
+        cameraSize = new Size(previewSize.width, previewSize.height);
+        cameraRotation = 90;
+        previewRotation = cameraRotation;
+        onPreviewSizeChosen(cameraSize, cameraRotation);
       }
     } catch (final Exception e) {
       LOGGER.e(e, "Exception!");
+      previewBufferPool.recycle(bytes);
       return;
     }
 
     isProcessingFrame = true;
+    planarFrame = false;
     yuvBytes[0] = bytes;
     yRowStride = previewWidth;
+    final FrameRecorder recorder = frameRecorder;
+    if (recorder != null) {
+      recorder.recordYUV420SP(
+          bytes, previewWidth, previewHeight, cameraRotation, SystemClock.elapsedRealtimeNanos());
+    }
 
     imageConverter =
         new Runnable() {
           @Override
           public void run() {
-            ImageUtils.convertYUV420SPToARGB8888(bytes, previewWidth, previewHeight, rgbBytes);
+            if (conversionRegion != null) {
+              ImageUtils.convertYUV420SPToARGB8888(
+                  bytes, previewWidth, previewHeight, conversionRegion, conversionStep, rgbBytes);
+            } else {
+              ImageUtils.convertYUV420SPToARGB8888(bytes, previewWidth, previewHeight, rgbBytes);
+            }
+            // Nothing reads the frame after this, so hand the buffer back to the camera right away.
+            recyclePreviewBuffer();
           }
         };
 
@@ -220,7 +335,7 @@ public abstract class CameraActivity extends AppCompatActivity
         new Runnable() {
           @Override
           public void run() {
-            camera.addCallbackBuffer(bytes);
+            recyclePreviewBuffer();
             isProcessingFrame = false;
           }
         };
@@ -237,6 +352,9 @@ public abstract class CameraActivity extends AppCompatActivity
     if (rgbBytes == null) {
       rgbBytes = new int[previewWidth * previewHeight];
     }
+    if (yuvConverter == null) {
+      yuvConverter = new ParallelYuvConverter(MAX_CONVERSION_THREADS);
+    }
     try {
       final Image image = reader.acquireLatestImage();
 
@@ -244,40 +362,43 @@ public abstract class CameraActivity extends AppCompatActivity
         return;
       }
 
-      if (isProcessingFrame) {
+      if (isProcessingFrame || replayThread.get() != null) {
         image.close();
         return;
       }
       isProcessingFrame = true;
-      Trace.beginSection("imageAvailable");
+      Tracer.beginSection("imageAvailable");
+      planarFrame = true;
+      this.image = image;
       final Plane[] planes = image.getPlanes();
-      fillBytes(planes, yuvBytes);
+      for (int i = 0; i < planes.length; ++i) {
+        yuvPlanes[i] = planes[i].getBuffer();
+      }
       yRowStride = planes[0].getRowStride();
-      final int uvRowStride = planes[1].getRowStride();
-      final int uvPixelStride = planes[1].getPixelStride();
+      uvRowStride = planes[1].getRowStride();
+      uvPixelStride = planes[1].getPixelStride();
+      final FrameRecorder recorder = frameRecorder;
+      if (recorder != null) {
+        recorder.recordYUV420(
+            yuvPlanes[0],
+            yuvPlanes[1],
+            yuvPlanes[2],
+            previewWidth,
+            previewHeight,
+            yRowStride,
+            uvRowStride,
+            uvPixelStride,
+            cameraRotation,
+            image.getTimestamp());
+      }
 
-      imageConverter =
-          new Runnable() {
-            @Override
-            public void run() {
-              ImageUtils.convertYUV420ToARGB8888(
-                  yuvBytes[0],
-                  yuvBytes[1],
-                  yuvBytes[2],
-                  previewWidth,
-                  previewHeight,
-                  yRowStride,
-                  uvRowStride,
-                  uvPixelStride,
-                  rgbBytes);
-            }
-          };
+      imageConverter = this::convertPlanes;
 
       postInferenceCallback =
           new Runnable() {
             @Override
             public void run() {
-              image.close();
+              closeImage();
               isProcessingFrame = false;
             }
           };
@@ -285,10 +406,246 @@ public abstract class CameraActivity extends AppCompatActivity
       processImage();
     } catch (final Exception e) {
       LOGGER.e(e, "Exception!");
-      Trace.endSection();
+      Tracer.endSection();
       return;
     }
-    Trace.endSection();
+    Tracer.endSection();
+  }
+
+  private void convertPlanes() {
+    if (conversionRegion != null) {
+      yuvConverter.convertYUV420ToARGB8888(
+          yuvPlanes[0],
+          yuvPlanes[1],
+          yuvPlanes[2],
+          yRowStride,
+          uvRowStride,
+          uvPixelStride,
+          conversionRegion,
+          conversionStep,
+          rgbBytes);
+    } else {
+      yuvConverter.convertYUV420ToARGB8888(
+          yuvPlanes[0],
+          yuvPlanes[1],
+          yuvPlanes[2],
+          previewWidth,
+          previewHeight,
+          yRowStride,
+          uvRowStride,
+          uvPixelStride,
+          rgbBytes);
+    }
+    // Nothing reads the planes after this, so hand the buffer back to the camera right away.
+    closeImage();
+  }
+
+  /**
+   * Starts appending the camera frames to {@code file}, replacing it, until paused or {@link
+   * #stopFrameRecording()}. The file can be replayed with {@link #startFrameReplay}.
+   *
+   * @param capacity The size of the file in bytes, at most 2 GB. Later frames are not recorded.
+   */
+  protected void startFrameRecording(final File file, final long capacity) {
+    stopFrameRecording();
+    try {
+      frameRecorder = new FrameRecorder(file, capacity);
+      LOGGER.i("Recording frames to %s", file);
+    } catch (final IOException e) {
+      LOGGER.e(e, "Failed to create capture file %s", file);
+    }
+  }
+
+  protected void stopFrameRecording() {
+    final FrameRecorder recorder = frameRecorder;
+    frameRecorder = null;
+    if (recorder != null) {
+      try {
+        recorder.close();
+      } catch (final IOException e) {
+        LOGGER.e(e, "Failed to close capture file.");
+      }
+    }
+  }
+
+  /**
+   * Feeds the frames recorded in {@code file} to {@link #processImage()} instead of the camera
+   * frames, until the last one or until paused. Frames of another size than the camera ones are
+   * processed as if the camera had chosen their size.
+   *
+   * @param originalSpeed Whether to deliver frames at the pace they were recorded at, dropping the
+   *     ones due while a frame is still processed as the camera does. Otherwise every frame is
+   *     delivered as soon as the previous one is processed.
+   */
+  protected void startFrameReplay(final File file, final boolean originalSpeed) {
+    final Thread thread = new Thread(() -> replayFrames(file, originalSpeed), "frame-replay");
+    final Thread previous = replayThread.getAndSet(thread);
+    if (previous != null) {
+      previous.interrupt();
+    }
+    thread.start();
+  }
+
+  /**
+   * Stops replaying without waiting, since the frame being processed may need the lock of this
+   * activity.
+   */
+  protected void stopFrameReplay() {
+    final Thread thread = replayThread.getAndSet(null);
+    if (thread != null) {
+      thread.interrupt();
+    }
+  }
+
+  private void replayFrames(final File file, final boolean originalSpeed) {
+    final Thread currentThread = Thread.currentThread();
+    // Held by the frame being processed.
+    final Semaphore idle = new Semaphore(1);
+    int replayed = 0;
+    int dropped = 0;
+    try (FrameReader reader = new FrameReader(file)) {
+      LOGGER.i("Replaying %d frames from %s", reader.getFrameCount(), file);
+      // Let the camera frame being processed finish.
+      while (isProcessingFrame) {
+        Thread.sleep(1);
+      }
+      long firstTimestamp = 0;
+      long startTime = 0;
+      FrameReader.Frame frame;
+      while (replayThread.get() == currentThread && (frame = reader.next()) != null) {
+        if (originalSpeed) {
+          if (replayed + dropped == 0) {
+            firstTimestamp = frame.getTimestampNanos();
+            startTime = SystemClock.elapsedRealtimeNanos();
+          }
+          final long dueTime = startTime + frame.getTimestampNanos() - firstTimestamp;
+          final long delay = dueTime - SystemClock.elapsedRealtimeNanos();
+          if (delay > 0) {
+            TimeUnit.NANOSECONDS.sleep(delay);
+          }
+          if (!idle.tryAcquire()) {
+            ++dropped;
+            continue;
+          }
+        } else {
+          idle.acquire();
+        }
+        processReplayedFrame(frame, idle);
+        ++replayed;
+      }
+      // Keep the camera frames out until the last frame is processed.
+      idle.acquire();
+      idle.release();
+    } catch (final IOException e) {
+      LOGGER.e(e, "Failed to read capture file %s", file);
+    } catch (final InterruptedException e) {
+      // Stopped.
+    } finally {
+      LOGGER.i("Replayed %d frames, dropped %d", replayed, dropped);
+      if (replayThread.get() == currentThread || replayThread.get() == null) {
+        restoreCameraPreviewSize(idle);
+      }
+      replayThread.compareAndSet(currentThread, null);
+    }
+  }
+
+  private void processReplayedFrame(final FrameReader.Frame frame, final Semaphore idle)
+      throws InterruptedException {
+    if (frame.getWidth() != previewWidth
+        || frame.getHeight() != previewHeight
+        || frame.getSensorOrientation() != previewRotation
+        || rgbBytes == null) {
+      LOGGER.i("Replaying frames of %dx%d", frame.getWidth(), frame.getHeight());
+      try {
+        choosePreviewSize(
+            new Size(frame.getWidth(), frame.getHeight()), frame.getSensorOrientation());
+      } catch (final InterruptedException e) {
+        idle.release();
+        throw e;
+      }
+    }
+    if (yuvConverter == null) {
+      yuvConverter = new ParallelYuvConverter(MAX_CONVERSION_THREADS);
+    }
+    isProcessingFrame = true;
+    Tracer.beginSection("replayFrame");
+    planarFrame = true;
+    yuvPlanes[0] = frame.getYBuffer();
+    yuvPlanes[1] = frame.getUBuffer();
+    yuvPlanes[2] = frame.getVBuffer();
+    yRowStride = frame.getYRowStride();
+    uvRowStride = frame.getUvRowStride();
+    uvPixelStride = frame.getUvPixelStride();
+    imageConverter = this::convertPlanes;
+
+    // Released once, even if the frame is reported done more than once.
+    final AtomicBoolean done = new AtomicBoolean();
+    postInferenceCallback =
+        () -> {
+          if (done.compareAndSet(false, true)) {
+            isProcessingFrame = false;
+            idle.release();
+          }
+        };
+    try {
+      processImage();
+    } catch (final RuntimeException e) {
+      LOGGER.e(e, "Exception!");
+    } finally {
+      Tracer.endSection();
+    }
+  }
+
+  /** Goes back to the size of the camera frames once the last replayed frame is processed. */
+  private void restoreCameraPreviewSize(final Semaphore idle) {
+    final Size size = cameraSize;
+    if (size == null
+        || (size.getWidth() == previewWidth
+            && size.getHeight() == previewHeight
+            && cameraRotation == previewRotation)) {
+      return;
+    }
+    boolean interrupted = false;
+    try {
+      if (!idle.tryAcquire(REPLAY_DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+        LOGGER.w("Last replayed frame still processed, restoring the camera size anyway.");
+      }
+    } catch (final InterruptedException e) {
+      interrupted = true;
+    }
+    try {
+      choosePreviewSize(size, cameraRotation);
+    } catch (final InterruptedException e) {
+      // The camera size is still restored, only not waited for.
+      interrupted = true;
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Switches to frames of another size from the replay thread. Subclasses set up their views in
+   * onPreviewSizeChosen(), so it runs on the UI thread, and the replay waits for it. The switch
+   * still happens if the wait is interrupted.
+   */
+  private void choosePreviewSize(final Size size, final int rotation) throws InterruptedException {
+    final FutureTask<Void> task =
+        new FutureTask<>(
+            () -> {
+              previewWidth = size.getWidth();
+              previewHeight = size.getHeight();
+              previewRotation = rotation;
+              rgbBytes = new int[previewWidth * previewHeight];
+              onPreviewSizeChosen(size, rotation);
+            },
+            null);
+    runOnUiThread(task);
+    try {
+      task.get();
+    } catch (final ExecutionException e) {
+      throw new IllegalStateException("Failed to switch to frames of " + size, e.getCause());
+    }
   }
 
   @Override
@@ -310,6 +667,13 @@ public abstract class CameraActivity extends AppCompatActivity
   @Override
   public synchronized void onPause() {
     LOGGER.d("onPause " + this);
+    stopFrameReplay();
+    stopFrameRecording();
+    if (!useCamera2API) {
+      LOGGER.d(
+          "Preview buffers starved the camera after %d of %d frames",
+          previewBufferPool.getStarvationCount(), previewBufferPool.getFrameCount());
+    }
 
     handlerThread.quitSafely();
     try {
@@ -332,13 +696,27 @@ public abstract class CameraActivity extends AppCompatActivity
   @Override
   public synchronized void onDestroy() {
     LOGGER.d("onDestroy " + this);
+    if (yuvConverter != null) {
+      yuvConverter.close();
+      yuvConverter = null;
+    }
     super.onDestroy();
   }
 
-  protected synchronized void runInBackground(final Runnable r) {
-    if (handler != null) {
-      handler.post(r);
-    }
+  /**
+   * Posts {@code r} to the inference thread. Not synchronized, so that tasks on the inference
+   * thread can post more while onPause() waits for them.
+   *
+   * @return False if the activity is paused, so that {@code r} will not run.
+   */
+  protected boolean runInBackground(final Runnable r) {
+    final Handler handler = this.handler;
+    return handler != null && handler.post(r);
+  }
+
+  /** Returns an executor running tasks on the inference thread, which rejects them while paused. */
+  protected Executor getInferenceExecutor() {
+    return inferenceExecutor;
   }
 
   @Override
@@ -433,8 +811,15 @@ public abstract class CameraActivity extends AppCompatActivity
               new CameraConnectionFragment.ConnectionCallback() {
                 @Override
                 public void onPreviewSizeChosen(final Size size, final int rotation) {
+                  cameraSize = size;
+                  cameraRotation = rotation;
+                  if (replayThread.get() != null) {
+                    // Applied once the replay ends.
+                    return;
+                  }
                   previewHeight = size.getHeight();
                   previewWidth = size.getWidth();
+                  previewRotation = rotation;
                   CameraActivity.this.onPreviewSizeChosen(size, rotation);
                 }
               },
@@ -446,7 +831,8 @@ public abstract class CameraActivity extends AppCompatActivity
       fragment = camera2Fragment;
     } else {
       fragment =
-          new LegacyCameraConnectionFragment(this, getLayoutId(), getDesiredPreviewFrameSize());
+          new LegacyCameraConnectionFragment(
+              this, getLayoutId(), getDesiredPreviewFrameSize(), previewBufferPool);
     }
 
     getFragmentManager().beginTransaction().replace(R.id.container, fragment).commit();
@@ -469,6 +855,21 @@ public abstract class CameraActivity extends AppCompatActivity
     return debug;
   }
 
+  private void recyclePreviewBuffer() {
+    if (yuvBytes[0] != null) {
+      previewBufferPool.recycle(yuvBytes[0]);
+      yuvBytes[0] = null;
+    }
+  }
+
+  private void closeImage() {
+    if (image != null) {
+      image.close();
+      image = null;
+    }
+    Arrays.fill(yuvPlanes, null);
+  }
+
   protected void readyForNextImage() {
     if (postInferenceCallback != null) {
       postInferenceCallback.run();
@@ -500,7 +901,8 @@ public abstract class CameraActivity extends AppCompatActivity
     if (v.getId() == R.id.plus) {
       String threads = threadsTextView.getText().toString().trim();
       int numThreads = Integer.parseInt(threads);
-      if (numThreads >= 9) return;
+      if (numThreads >= MAX_THREADS) return;
+      numThreadsChosenByUser = true;
       numThreads++;
       threadsTextView.setText(String.valueOf(numThreads));
       setNumThreads(numThreads);
@@ -510,6 +912,7 @@ public abstract class CameraActivity extends AppCompatActivity
       if (numThreads == 1) {
         return;
       }
+      numThreadsChosenByUser = true;
       numThreads--;
       threadsTextView.setText(String.valueOf(numThreads));
       setNumThreads(numThreads);
@@ -528,6 +931,18 @@ public abstract class CameraActivity extends AppCompatActivity
     inferenceTimeTextView.setText(inferenceTime);
   }
 
+  /** Returns true if the thread count was set with the stepper, so it should not be tuned. */
+  protected boolean isNumThreadsChosenByUser() {
+    return numThreadsChosenByUser;
+  }
+
+  /** Shows a thread count picked by tuning the detector, unless one was set with the stepper. */
+  protected void showTunedNumThreads(int numThreads) {
+    if (!numThreadsChosenByUser) {
+      threadsTextView.setText(String.valueOf(numThreads));
+    }
+  }
+
   protected abstract void processImage();
 
   protected abstract void onPreviewSizeChosen(final Size size, final int rotation);
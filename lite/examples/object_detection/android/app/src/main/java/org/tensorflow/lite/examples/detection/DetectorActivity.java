@@ -23,6 +23,7 @@ import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Paint.Style;
+import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.Typeface;
 import android.media.ImageReader.OnImageAvailableListener;
@@ -30,16 +31,23 @@ import android.os.SystemClock;
 import android.util.Size;
 import android.util.TypedValue;
 import android.widget.Toast;
+import java.io.File;
 import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
 import org.tensorflow.lite.examples.detection.customview.OverlayView;
 import org.tensorflow.lite.examples.detection.customview.OverlayView.DrawCallback;
 import org.tensorflow.lite.examples.detection.env.BorderedText;
+import org.tensorflow.lite.examples.detection.env.ImageResampler;
 import org.tensorflow.lite.examples.detection.env.ImageUtils;
 import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.MetricsRegistry;
+import org.tensorflow.lite.examples.detection.env.MetricsRegistry.Stage;
+import org.tensorflow.lite.examples.detection.env.Tracer;
+import org.tensorflow.lite.examples.detection.env.YuvToTensorConverter;
 import org.tensorflow.lite.examples.detection.tflite.Classifier;
 import org.tensorflow.lite.examples.detection.tflite.TFLiteObjectDetectionAPIModel;
+import org.tensorflow.lite.examples.detection.tflite.ThreadAutotuner;
 import org.tensorflow.lite.examples.detection.tracking.MultiBoxTracker;
 
 /**
@@ -60,15 +68,46 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
   private static final boolean MAINTAIN_ASPECT = false;
   private static final Size DESIRED_PREVIEW_SIZE = new Size(640, 480);
   private static final boolean SAVE_PREVIEW_BITMAP = false;
+  // Sample frames straight into the model input instead of going through cropped Bitmaps.
+  private static final boolean USE_FUSED_PREPROCESSING = false;
+  // Convert only the part of the frame that ends up in the crop, skipping pixels when downsampling.
+  private static final boolean CONVERT_CROP_REGION_ONLY = false;
+  // Filter used when scaling the converted frame into the crop.
+  private static final ImageResampler.Mode RESAMPLING_MODE = ImageResampler.Mode.BILINEAR;
+  // Rotate the converted frame upright before scaling it, instead of rotating while scaling.
+  private static final boolean ROTATE_BEFORE_CROP = false;
   private static final float TEXT_SIZE_DIP = 10;
+  // Synthetic inferences run on the detector before it sees frames.
+  private static final int WARM_UP_RUNS = 3;
+  // Pick the thread count by timing the model, instead of starting with the stepper's count.
+  private static final boolean AUTOTUNE_THREADS = true;
+  // Synthetic inferences timed per thread count when tuning.
+  private static final int AUTOTUNE_RUNS = 10;
+  // Keep trace sections while resumed, and write them as a Chrome trace to the app's external
+  // files directory when paused.
+  private static final boolean RECORD_TRACE = false;
+  private static final int TRACE_CAPACITY = 1 << 15;
+  private static final String TRACE_FILE_NAME = "trace.json";
+  // Format and write log messages on a background thread while resumed, keeping this many waiting.
+  private static final boolean ASYNC_LOGGING = false;
+  private static final int ASYNC_LOG_CAPACITY = 1024;
+  // Record the camera frames to the app's external files directory while resumed, or replay the
+  // recorded ones instead of the camera frames, at the recorded pace or as fast as they are
+  // processed.
+  private static final boolean RECORD_FRAMES = false;
+  private static final boolean REPLAY_FRAMES = false;
+  private static final boolean REPLAY_AT_ORIGINAL_SPEED = true;
+  private static final long FRAMES_CAPACITY = 256L << 20;
+  private static final String FRAMES_FILE_NAME = "frames.yuv";
   OverlayView trackingOverlay;
   private Integer sensorOrientation;
 
   private Classifier detector;
+  // Tunes the thread count of the detector, if tuned.
+  private volatile ThreadAutotuner threadAutotuner;
 
-  private long lastProcessingTimeMs;
-  private Bitmap rgbFrameBitmap = null;
   private Bitmap croppedBitmap = null;
+  private int[] croppedPixels;
   private Bitmap cropCopyBitmap = null;
 
   private boolean computingDetection = false;
@@ -77,40 +116,71 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
   private Matrix frameToCropTransform;
   private Matrix cropToFrameTransform;
+  private ImageResampler cropResampler;
+  private int rgbFrameWidth;
+  private int rgbFrameHeight;
+  // Clockwise rotation applied by ImageUtils.rotate() before cropping, 0 if none.
+  private int frameRotation;
+  private int[] rotatedPixels;
+  private YuvToTensorConverter tensorConverter;
 
   private MultiBoxTracker tracker;
 
   private BorderedText borderedText;
-
+  // The size and rotation of the frames set up by onPreviewSizeChosen(), or null.
+  private Size configuredSize;
+  private int configuredRotation;
+
+  /**
+   * Sets up for frames of {@code size}, on the UI thread. The camera calls it again after a resume,
+   * and replaying frames of another size calls it too: the detector, the tracker and the overlay
+   * callback are only created the first time.
+   */
   @Override
   public void onPreviewSizeChosen(final Size size, final int rotation) {
-    final float textSizePx =
-        TypedValue.applyDimension(
-            TypedValue.COMPLEX_UNIT_DIP, TEXT_SIZE_DIP, getResources().getDisplayMetrics());
-    borderedText = new BorderedText(textSizePx);
-    borderedText.setTypeface(Typeface.MONOSPACE);
+    if (size.equals(configuredSize) && rotation == configuredRotation) {
+      return;
+    }
+    configuredSize = size;
+    configuredRotation = rotation;
 
-    tracker = new MultiBoxTracker(this);
+    if (tracker == null) {
+      final float textSizePx =
+          TypedValue.applyDimension(
+              TypedValue.COMPLEX_UNIT_DIP, TEXT_SIZE_DIP, getResources().getDisplayMetrics());
+      borderedText = new BorderedText(textSizePx);
+      borderedText.setTypeface(Typeface.MONOSPACE);
+
+      tracker = new MultiBoxTracker(this);
+    }
 
     int cropSize = TF_OD_API_INPUT_SIZE;
 
-    try {
-      detector =
-          TFLiteObjectDetectionAPIModel.create(
-              getAssets(),
-              TF_OD_API_MODEL_FILE,
-              TF_OD_API_LABELS_FILE,
-              TF_OD_API_INPUT_SIZE,
-              TF_OD_API_IS_QUANTIZED);
-      cropSize = TF_OD_API_INPUT_SIZE;
-    } catch (final IOException e) {
-      e.printStackTrace();
-      LOGGER.e(e, "Exception initializing classifier!");
-      Toast toast =
-          Toast.makeText(
-              getApplicationContext(), "Classifier could not be initialized", Toast.LENGTH_SHORT);
-      toast.show();
-      finish();
+    if (detector == null) {
+      try {
+        detector =
+            TFLiteObjectDetectionAPIModel.create(
+                getAssets(),
+                TF_OD_API_MODEL_FILE,
+                TF_OD_API_LABELS_FILE,
+                TF_OD_API_INPUT_SIZE,
+                TF_OD_API_IS_QUANTIZED,
+                WARM_UP_RUNS,
+                getInferenceExecutor());
+        if (AUTOTUNE_THREADS) {
+          threadAutotuner = new ThreadAutotuner(this, MAX_THREADS, AUTOTUNE_RUNS);
+          detector.startTuning(threadAutotuner);
+        }
+        cropSize = TF_OD_API_INPUT_SIZE;
+      } catch (final IOException e) {
+        e.printStackTrace();
+        LOGGER.e(e, "Exception initializing classifier!");
+        Toast toast =
+            Toast.makeText(
+                getApplicationContext(), "Classifier could not be initialized", Toast.LENGTH_SHORT);
+        toast.show();
+        finish();
+      }
     }
 
     previewWidth = size.getWidth();
@@ -120,8 +190,8 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
     LOGGER.i("Camera orientation relative to screen canvas: %d", sensorOrientation);
 
     LOGGER.i("Initializing at size %dx%d", previewWidth, previewHeight);
-    rgbFrameBitmap = Bitmap.createBitmap(previewWidth, previewHeight, Config.ARGB_8888);
     croppedBitmap = Bitmap.createBitmap(cropSize, cropSize, Config.ARGB_8888);
+    croppedPixels = new int[cropSize * cropSize];
 
     frameToCropTransform =
         ImageUtils.getTransformationMatrix(
@@ -132,17 +202,76 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
     cropToFrameTransform = new Matrix();
     frameToCropTransform.invert(cropToFrameTransform);
 
-    trackingOverlay = (OverlayView) findViewById(R.id.tracking_overlay);
-    trackingOverlay.addCallback(
-        new DrawCallback() {
-          @Override
-          public void drawCallback(final Canvas canvas) {
-            tracker.draw(canvas);
-            if (isDebug()) {
-              tracker.drawDebug(canvas);
+    // Maps the converted pixels into the crop.
+    Matrix rgbFrameToCropTransform;
+    if (CONVERT_CROP_REGION_ONLY) {
+      final Rect region =
+          ImageUtils.getCropSourceRegion(
+              frameToCropTransform, previewWidth, previewHeight, cropSize, cropSize);
+      final int step = ImageUtils.getSamplingStep(frameToCropTransform);
+      LOGGER.i("Converting frame region %s every %d pixels", region, step);
+      setConversionRegion(region, step);
+      rgbFrameWidth = ImageUtils.getSampledLength(region.width(), step);
+      rgbFrameHeight = ImageUtils.getSampledLength(region.height(), step);
+      rgbFrameToCropTransform =
+          ImageUtils.getRegionToCropTransform(region, step, frameToCropTransform);
+    } else {
+      rgbFrameWidth = previewWidth;
+      rgbFrameHeight = previewHeight;
+      rgbFrameToCropTransform = frameToCropTransform;
+    }
+    frameRotation = 0;
+    int resampledWidth = rgbFrameWidth;
+    int resampledHeight = rgbFrameHeight;
+    final int rightAngle = ImageUtils.getRightAngleRotation(rgbFrameToCropTransform);
+    if (ROTATE_BEFORE_CROP && rightAngle > 0) {
+      LOGGER.i("Rotating frames by %d degrees before cropping", rightAngle);
+      frameRotation = rightAngle;
+      rotatedPixels = new int[rgbFrameWidth * rgbFrameHeight];
+      if (rightAngle != 180) {
+        resampledWidth = rgbFrameHeight;
+        resampledHeight = rgbFrameWidth;
+      }
+      final Matrix rotatedToCropTransform = new Matrix();
+      ImageUtils.getRotationTransform(rgbFrameWidth, rgbFrameHeight, rightAngle)
+          .invert(rotatedToCropTransform);
+      rotatedToCropTransform.postConcat(rgbFrameToCropTransform);
+      rgbFrameToCropTransform = rotatedToCropTransform;
+    }
+    cropResampler =
+        new ImageResampler(
+            resampledWidth,
+            resampledHeight,
+            rgbFrameToCropTransform,
+            cropSize,
+            cropSize,
+            RESAMPLING_MODE);
+
+    if (USE_FUSED_PREPROCESSING) {
+      tensorConverter =
+          new YuvToTensorConverter(
+              previewWidth, previewHeight, frameToCropTransform, cropSize, cropSize);
+      tensorConverter.setNormalization(
+          detector.isQuantized(), detector.getImageMean(), detector.getImageStd());
+    }
+
+    if (trackingOverlay == null) {
+      trackingOverlay = (OverlayView) findViewById(R.id.tracking_overlay);
+      trackingOverlay.addCallback(
+          new DrawCallback() {
+            @Override
+            public void drawCallback(final Canvas canvas) {
+              final long startTime = SystemClock.elapsedRealtimeNanos();
+              Tracer.beginSection("drawTracks");
+              tracker.draw(canvas);
+              if (isDebug()) {
+                tracker.drawDebug(canvas);
+              }
+              Tracer.endSection();
+              MetricsRegistry.record(Stage.RENDER, SystemClock.elapsedRealtimeNanos() - startTime);
             }
-          }
-        });
+          });
+    }
 
     tracker.setFrameConfiguration(previewWidth, previewHeight, sensorOrientation);
   }
@@ -153,33 +282,51 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
     final long currTimestamp = timestamp;
     trackingOverlay.postInvalidate();
 
-    // No mutex needed as this method is not reentrant.
-    if (computingDetection) {
+    // No mutex needed as this method is not reentrant. Frames are skipped while the detector
+    // warms up, instead of waiting for it.
+    if (computingDetection || !detector.isReady()) {
       readyForNextImage();
       return;
     }
     computingDetection = true;
-    LOGGER.i("Preparing image " + currTimestamp + " for detection in bg thread.");
+    LOGGER.i("Preparing image %d for detection in bg thread.", currTimestamp);
 
-    rgbFrameBitmap.setPixels(getRgbBytes(), 0, previewWidth, 0, 0, previewWidth, previewHeight);
+    final long convertStartTime = SystemClock.elapsedRealtimeNanos();
+    if (tensorConverter != null) {
+      // No detection is running, so the input buffer can be written from this thread.
+      convertFrameToTensor(tensorConverter, detector.getInputBuffer());
+      MetricsRegistry.record(Stage.CONVERT, SystemClock.elapsedRealtimeNanos() - convertStartTime);
+      readyForNextImage();
+    } else {
+      if (frameRotation != 0) {
+        ImageUtils.rotate(
+            getRgbBytes(), rgbFrameWidth, rgbFrameHeight, frameRotation, rotatedPixels);
+        cropResampler.resample(rotatedPixels, croppedPixels);
+      } else {
+        cropResampler.resample(getRgbBytes(), croppedPixels);
+      }
 
-    readyForNextImage();
+      readyForNextImage();
 
-    final Canvas canvas = new Canvas(croppedBitmap);
-    canvas.drawBitmap(rgbFrameBitmap, frameToCropTransform, null);
-    // For examining the actual TF input.
-    if (SAVE_PREVIEW_BITMAP) {
-      ImageUtils.saveBitmap(croppedBitmap);
+      final int cropWidth = cropResampler.getDstWidth();
+      croppedBitmap.setPixels(
+          croppedPixels, 0, cropWidth, 0, 0, cropWidth, cropResampler.getDstHeight());
+      MetricsRegistry.record(Stage.CONVERT, SystemClock.elapsedRealtimeNanos() - convertStartTime);
+      // For examining the actual TF input.
+      if (SAVE_PREVIEW_BITMAP) {
+        ImageUtils.saveBitmap(croppedBitmap);
+      }
     }
 
     runInBackground(
         new Runnable() {
           @Override
           public void run() {
-            LOGGER.i("Running detection on image " + currTimestamp);
-            final long startTime = SystemClock.uptimeMillis();
-            final List<Classifier.Recognition> results = detector.recognizeImage(croppedBitmap);
-            lastProcessingTimeMs = SystemClock.uptimeMillis() - startTime;
+            LOGGER.i("Running detection on image %d", currTimestamp);
+            final List<Classifier.Recognition> results =
+                tensorConverter != null
+                    ? detector.recognizeInputBuffer()
+                    : detector.recognizeImage(croppedBitmap);
 
             cropCopyBitmap = Bitmap.createBitmap(croppedBitmap);
             final Canvas canvas = new Canvas(cropCopyBitmap);
@@ -210,7 +357,12 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
               }
             }
 
+            final long trackStartTime = SystemClock.elapsedRealtimeNanos();
+            Tracer.beginSection("trackResults");
             tracker.trackResults(mappedRecognitions, currTimestamp);
+            Tracer.endSection();
+            MetricsRegistry.record(
+                Stage.TRACK, SystemClock.elapsedRealtimeNanos() - trackStartTime);
             trackingOverlay.postInvalidate();
 
             computingDetection = false;
@@ -221,13 +373,72 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
                   public void run() {
                     showFrameInfo(previewWidth + "x" + previewHeight);
                     showCropInfo(cropCopyBitmap.getWidth() + "x" + cropCopyBitmap.getHeight());
-                    showInference(lastProcessingTimeMs + "ms");
+                    showInference(
+                        MetricsRegistry.get(Stage.INFER).getPercentileMicros(50) / 1000 + "ms");
+                    // Tuning may have run since the last frame.
+                    final ThreadAutotuner tuner = threadAutotuner;
+                    if (tuner != null && tuner.getResult() != null) {
+                      showTunedNumThreads(tuner.getResult().getNumThreads());
+                    }
                   }
                 });
           }
         });
   }
 
+  @Override
+  public synchronized void onResume() {
+    super.onResume();
+    if (ASYNC_LOGGING) {
+      Logger.startAsync(ASYNC_LOG_CAPACITY);
+    }
+    if (RECORD_TRACE) {
+      Tracer.start(TRACE_CAPACITY);
+    }
+    final File framesFile = new File(getExternalFilesDir(null), FRAMES_FILE_NAME);
+    if (REPLAY_FRAMES) {
+      startFrameReplay(framesFile, REPLAY_AT_ORIGINAL_SPEED);
+    } else if (RECORD_FRAMES) {
+      startFrameRecording(framesFile, FRAMES_CAPACITY);
+    }
+  }
+
+  @Override
+  public synchronized void onPause() {
+    LOGGER.i("Stage latencies:\n%s", MetricsRegistry.dump());
+    if (RECORD_TRACE) {
+      Tracer.stop();
+      final File traceFile = new File(getExternalFilesDir(null), TRACE_FILE_NAME);
+      new Thread(
+              () -> {
+                try {
+                  Tracer.exportChromeTrace(traceFile);
+                } catch (final IOException e) {
+                  LOGGER.e(e, "Failed to export trace.");
+                }
+              },
+              "trace-export")
+          .start();
+    }
+    if (ASYNC_LOGGING) {
+      Logger.stopAsync();
+    }
+    super.onPause();
+  }
+
+  @Override
+  public synchronized void onDestroy() {
+    // The inference thread stopped in onPause().
+    if (threadAutotuner != null) {
+      threadAutotuner.stop();
+      threadAutotuner = null;
+    }
+    if (detector != null) {
+      detector.close();
+    }
+    super.onDestroy();
+  }
+
   @Override
   protected int getLayoutId() {
     return R.layout.camera_connection_fragment_tracking;
@@ -251,6 +462,11 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
   @Override
   protected void setNumThreads(final int numThreads) {
+    // The stepper overrides tuning from now on.
+    if (threadAutotuner != null) {
+      threadAutotuner.stop();
+      threadAutotuner = null;
+    }
     runInBackground(() -> detector.setNumThreads(numThreads));
   }
 }
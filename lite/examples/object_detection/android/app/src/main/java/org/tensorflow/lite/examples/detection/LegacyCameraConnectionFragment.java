@@ -33,7 +33,7 @@ import android.view.ViewGroup;
 import java.io.IOException;
 import java.util.List;
 import org.tensorflow.lite.examples.detection.customview.AutoFitTextureView;
-import org.tensorflow.lite.examples.detection.env.ImageUtils;
+import org.tensorflow.lite.examples.detection.env.FrameBufferPool;
 import org.tensorflow.lite.examples.detection.env.Logger;
 
 public class LegacyCameraConnectionFragment extends Fragment {
@@ -51,6 +51,7 @@ public class LegacyCameraConnectionFragment extends Fragment {
   private Camera camera;
   private Camera.PreviewCallback imageListener;
   private Size desiredSize;
+  private FrameBufferPool bufferPool;
   /** The layout identifier to inflate for this Fragment. */
   private int layout;
   /** An {@link AutoFitTextureView} for camera preview. */
@@ -94,7 +95,7 @@ public class LegacyCameraConnectionFragment extends Fragment {
 
           camera.setPreviewCallbackWithBuffer(imageListener);
           Camera.Size s = camera.getParameters().getPreviewSize();
-          camera.addCallbackBuffer(new byte[ImageUtils.getYUVByteSize(s.height, s.width)]);
+          bufferPool.attach(s.width, s.height, camera::addCallbackBuffer);
 
           textureView.setAspectRatio(s.height, s.width);
 
@@ -117,10 +118,14 @@ public class LegacyCameraConnectionFragment extends Fragment {
   private HandlerThread backgroundThread;
 
   public LegacyCameraConnectionFragment(
-      final Camera.PreviewCallback imageListener, final int layout, final Size desiredSize) {
+      final Camera.PreviewCallback imageListener,
+      final int layout,
+      final Size desiredSize,
+      final FrameBufferPool bufferPool) {
     this.imageListener = imageListener;
     this.layout = layout;
     this.desiredSize = desiredSize;
+    this.bufferPool = bufferPool;
   }
 
   @Override
@@ -181,6 +186,7 @@ public class LegacyCameraConnectionFragment extends Fragment {
 
   protected void stopCamera() {
     if (camera != null) {
+      bufferPool.detach();
       camera.stopPreview();
       camera.setPreviewCallback(null);
       camera.release();
@@ -0,0 +1,352 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import android.graphics.Matrix;
+
+/**
+ * Resamples ARGB pixels through a frame to crop transform, replacing drawing the frame Bitmap into
+ * the crop with a Canvas. The source positions and filter weights of every crop pixel are computed
+ * once in the constructor, so {@link #resample} does not allocate.
+ *
+ * <p>The transform may scale, translate and rotate by multiples of 90 degrees, which covers every
+ * transform returned by {@link ImageUtils#getTransformationMatrix}. Samples that fall outside of
+ * the source are clamped to its edges.
+ */
+public class ImageResampler {
+  /** The filter applied when sampling the source. */
+  public enum Mode {
+    /** The source pixel under each crop pixel center, like a Canvas without a Paint. */
+    NEAREST,
+    /** Linear interpolation between the four source pixels around each crop pixel center. */
+    BILINEAR,
+    /**
+     * The average of the source pixels covered by each crop pixel, weighted by coverage. Falls back
+     * to bilinear interpolation along axes that are being enlarged.
+     */
+    AREA
+  }
+
+  // Filter weights along one axis sum up to 1 << WEIGHT_BITS.
+  private static final int WEIGHT_BITS = 10;
+  private static final int ONE = 1 << WEIGHT_BITS;
+  private static final int ROUNDING = 1 << (2 * WEIGHT_BITS - 1);
+
+  // Tolerance when checking that the transform keeps the axes aligned.
+  private static final float EPSILON = 1e-5f;
+
+  private final int srcWidth;
+  private final int srcHeight;
+  private final int dstWidth;
+  private final int dstHeight;
+  private final Mode mode;
+
+  // The taps of crop column i are colTapOffset/colTapWeight[colTapStart[i], colTapStart[i + 1]).
+  // Offsets are source array offsets, so they already include the row stride if the transform
+  // swaps the axes. Rows work the same way.
+  private final int[] colTapStart;
+  private final int[] colTapOffset;
+  private final int[] colTapWeight;
+  private final int[] rowTapStart;
+  private final int[] rowTapOffset;
+  private final int[] rowTapWeight;
+
+  /**
+   * Creates a resampler.
+   *
+   * @param srcWidth Width of the source pixels.
+   * @param srcHeight Height of the source pixels.
+   * @param srcToDstTransform The transform from source to crop coordinates, e.g. as returned by
+   *     {@link ImageUtils#getTransformationMatrix}.
+   * @param dstWidth Width of the crop.
+   * @param dstHeight Height of the crop.
+   * @param mode The filter to use.
+   */
+  public ImageResampler(
+      final int srcWidth,
+      final int srcHeight,
+      final Matrix srcToDstTransform,
+      final int dstWidth,
+      final int dstHeight,
+      final Mode mode) {
+    this(srcWidth, srcHeight, getInverseValues(srcToDstTransform), dstWidth, dstHeight, mode);
+  }
+
+  /**
+   * Creates a resampler from the values of the crop to source transform, laid out as by {@link
+   * Matrix#getValues}.
+   */
+  ImageResampler(
+      final int srcWidth,
+      final int srcHeight,
+      final float[] dstToSrc,
+      final int dstWidth,
+      final int dstHeight,
+      final Mode mode) {
+    this.srcWidth = srcWidth;
+    this.srcHeight = srcHeight;
+    this.dstWidth = dstWidth;
+    this.dstHeight = dstHeight;
+    this.mode = mode;
+
+    final float scaleX = dstToSrc[Matrix.MSCALE_X];
+    final float skewX = dstToSrc[Matrix.MSKEW_X];
+    final float skewY = dstToSrc[Matrix.MSKEW_Y];
+    final float scaleY = dstToSrc[Matrix.MSCALE_Y];
+    final float transX = dstToSrc[Matrix.MTRANS_X];
+    final float transY = dstToSrc[Matrix.MTRANS_Y];
+    if (dstToSrc[Matrix.MPERSP_0] != 0 || dstToSrc[Matrix.MPERSP_1] != 0) {
+      throw new IllegalArgumentException("Perspective transforms are not supported.");
+    }
+
+    final AxisTaps cols;
+    final AxisTaps rows;
+    if (isZero(skewX, scaleX) && isZero(skewY, scaleY)) {
+      // Crop columns map to source columns and crop rows to source rows.
+      cols = new AxisTaps(dstWidth, scaleX, transX, srcWidth, 1, mode);
+      rows = new AxisTaps(dstHeight, scaleY, transY, srcHeight, srcWidth, mode);
+    } else if (isZero(scaleX, skewX) && isZero(scaleY, skewY)) {
+      // Rotated by 90 or 270 degrees: crop columns map to source rows and crop rows to columns.
+      cols = new AxisTaps(dstWidth, skewY, transY, srcHeight, srcWidth, mode);
+      rows = new AxisTaps(dstHeight, skewX, transX, srcWidth, 1, mode);
+    } else {
+      throw new IllegalArgumentException(
+          "Only rotations by multiples of 90 degrees are supported.");
+    }
+    colTapStart = cols.start;
+    colTapOffset = cols.offset;
+    colTapWeight = cols.weight;
+    rowTapStart = rows.start;
+    rowTapOffset = rows.offset;
+    rowTapWeight = rows.weight;
+  }
+
+  public int getSrcWidth() {
+    return srcWidth;
+  }
+
+  public int getSrcHeight() {
+    return srcHeight;
+  }
+
+  public int getDstWidth() {
+    return dstWidth;
+  }
+
+  public int getDstHeight() {
+    return dstHeight;
+  }
+
+  public Mode getMode() {
+    return mode;
+  }
+
+  /**
+   * Resamples a frame.
+   *
+   * @param src The source pixels, srcWidth * srcHeight ARGB values in row major order. Longer
+   *     arrays are fine, the remaining values are ignored.
+   * @param dst Receives dstWidth * dstHeight ARGB values in row major order.
+   */
+  public void resample(final int[] src, final int[] dst) {
+    if (mode == Mode.NEAREST) {
+      resampleNearest(src, dst);
+      return;
+    }
+    if (mode == Mode.BILINEAR) {
+      resampleBilinear(src, dst);
+      return;
+    }
+
+    int p = 0;
+    for (int j = 0; j < dstHeight; j++) {
+      final int rowEnd = rowTapStart[j + 1];
+      for (int i = 0; i < dstWidth; i++) {
+        final int colStart = colTapStart[i];
+        final int colEnd = colTapStart[i + 1];
+        int a = ROUNDING;
+        int r = ROUNDING;
+        int g = ROUNDING;
+        int b = ROUNDING;
+        for (int rowTap = rowTapStart[j]; rowTap < rowEnd; rowTap++) {
+          final int rowOffset = rowTapOffset[rowTap];
+          final int rowWeight = rowTapWeight[rowTap];
+          for (int colTap = colStart; colTap < colEnd; colTap++) {
+            final int pixel = src[rowOffset + colTapOffset[colTap]];
+            final int weight = rowWeight * colTapWeight[colTap];
+            a += weight * (pixel >>> 24);
+            r += weight * ((pixel >> 16) & 0xff);
+            g += weight * ((pixel >> 8) & 0xff);
+            b += weight * (pixel & 0xff);
+          }
+        }
+        final int shift = 2 * WEIGHT_BITS;
+        dst[p++] =
+            ((a >>> shift) << 24) | ((r >>> shift) << 16) | ((g >>> shift) << 8) | (b >>> shift);
+      }
+    }
+  }
+
+  private void resampleNearest(final int[] src, final int[] dst) {
+    int p = 0;
+    for (int j = 0; j < dstHeight; j++) {
+      final int rowOffset = rowTapOffset[j];
+      for (int i = 0; i < dstWidth; i++) {
+        dst[p++] = src[rowOffset + colTapOffset[i]];
+      }
+    }
+  }
+
+  // Every crop pixel has exactly two taps along each axis, at 2 * i and 2 * i + 1.
+  private void resampleBilinear(final int[] src, final int[] dst) {
+    int p = 0;
+    for (int j = 0; j < dstHeight; j++) {
+      final int topOffset = rowTapOffset[2 * j];
+      final int bottomOffset = rowTapOffset[2 * j + 1];
+      final int topWeight = rowTapWeight[2 * j];
+      final int bottomWeight = rowTapWeight[2 * j + 1];
+      for (int i = 0; i < dstWidth; i++) {
+        final int leftOffset = colTapOffset[2 * i];
+        final int rightOffset = colTapOffset[2 * i + 1];
+        final int leftWeight = colTapWeight[2 * i];
+        final int rightWeight = colTapWeight[2 * i + 1];
+        final int topLeft = src[topOffset + leftOffset];
+        final int topRight = src[topOffset + rightOffset];
+        final int bottomLeft = src[bottomOffset + leftOffset];
+        final int bottomRight = src[bottomOffset + rightOffset];
+        // Blend the two rows first, then the columns, rounding only at the end.
+        final int shift = 2 * WEIGHT_BITS;
+        int argb = 0;
+        for (int channelShift = 0; channelShift < 32; channelShift += 8) {
+          final int left =
+              topWeight * ((topLeft >>> channelShift) & 0xff)
+                  + bottomWeight * ((bottomLeft >>> channelShift) & 0xff);
+          final int right =
+              topWeight * ((topRight >>> channelShift) & 0xff)
+                  + bottomWeight * ((bottomRight >>> channelShift) & 0xff);
+          argb |= ((leftWeight * left + rightWeight * right + ROUNDING) >>> shift) << channelShift;
+        }
+        dst[p++] = argb;
+      }
+    }
+  }
+
+  private static float[] getInverseValues(final Matrix srcToDstTransform) {
+    final Matrix dstToSrcTransform = new Matrix();
+    if (!srcToDstTransform.invert(dstToSrcTransform)) {
+      throw new IllegalArgumentException("The transform is not invertible.");
+    }
+    final float[] values = new float[9];
+    dstToSrcTransform.getValues(values);
+    return values;
+  }
+
+  private static boolean isZero(final float value, final float reference) {
+    return Math.abs(value) <= EPSILON * Math.abs(reference);
+  }
+
+  /** The source taps of every crop pixel along one axis. */
+  private static class AxisTaps {
+    final int[] start;
+    final int[] offset;
+    final int[] weight;
+
+    /**
+     * @param dstLength Number of crop pixels along the axis.
+     * @param scale Source pixels per crop pixel. Negative if the axis is flipped.
+     * @param translation Source coordinate of the crop origin.
+     * @param srcLength Number of source pixels along the mapped source axis.
+     * @param srcStride Array distance between neighboring source pixels along that axis.
+     * @param mode The filter to use.
+     */
+    AxisTaps(
+        final int dstLength,
+        final float scale,
+        final float translation,
+        final int srcLength,
+        final int srcStride,
+        final Mode mode) {
+      final float footprint = Math.abs(scale);
+      final int maxTaps;
+      if (mode == Mode.NEAREST) {
+        maxTaps = 1;
+      } else if (mode == Mode.AREA && footprint > 1) {
+        maxTaps = (int) Math.ceil(footprint) + 1;
+      } else {
+        maxTaps = 2;
+      }
+
+      start = new int[dstLength + 1];
+      final int[] taps = new int[dstLength * maxTaps];
+      final int[] weights = new int[dstLength * maxTaps];
+      int count = 0;
+      for (int i = 0; i < dstLength; i++) {
+        start[i] = count;
+        // Sample at the pixel center, as the Canvas does.
+        final float center = scale * (i + 0.5f) + translation;
+        if (mode == Mode.NEAREST) {
+          taps[count] = clamp((int) Math.floor(center), srcLength);
+          weights[count++] = ONE;
+        } else if (mode == Mode.AREA && footprint > 1) {
+          final float low = center - footprint / 2;
+          final float high = center + footprint / 2;
+          final int first = (int) Math.floor(low);
+          final int last = (int) Math.ceil(high) - 1;
+          final int tapStart = count;
+          for (int s = first; s <= last; s++) {
+            final float coverage = Math.min(high, s + 1) - Math.max(low, s);
+            taps[count] = clamp(s, srcLength);
+            weights[count++] = Math.round(coverage / footprint * ONE);
+          }
+          normalize(weights, tapStart, count);
+        } else {
+          final float position = center - 0.5f;
+          final int left = (int) Math.floor(position);
+          final int rightWeight = Math.round((position - left) * ONE);
+          taps[count] = clamp(left, srcLength);
+          weights[count++] = ONE - rightWeight;
+          taps[count] = clamp(left + 1, srcLength);
+          weights[count++] = rightWeight;
+        }
+      }
+      start[dstLength] = count;
+
+      offset = new int[count];
+      weight = new int[count];
+      for (int t = 0; t < count; t++) {
+        offset[t] = taps[t] * srcStride;
+        weight[t] = weights[t];
+      }
+    }
+
+    private static int clamp(final int position, final int length) {
+      return Math.max(0, Math.min(position, length - 1));
+    }
+
+    // Makes rounded weights sum up to exactly ONE by correcting the largest one.
+    private static void normalize(final int[] weights, final int start, final int end) {
+      int sum = 0;
+      int largest = start;
+      for (int t = start; t < end; t++) {
+        sum += weights[t];
+        if (weights[t] > weights[largest]) {
+          largest = t;
+        }
+      }
+      weights[largest] += ONE - sum;
+    }
+  }
+}
@@ -0,0 +1,195 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import android.graphics.Rect;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Converts YUV420 frames to ARGB on a dedicated fork/join pool. The frame is split into stripes
+ * that start on even rows, so that the two luma rows sharing a chroma row are always converted by
+ * the same worker.
+ */
+public class ParallelYuvConverter {
+
+  private final ForkJoinPool pool;
+
+  /**
+   * Creates a converter.
+   *
+   * @param maxParallelism Upper bound on the number of worker threads. The pool never uses more
+   *     threads than there are available processors, so callers can leave room for inference
+   *     threads by passing a smaller value.
+   */
+  public ParallelYuvConverter(final int maxParallelism) {
+    final int parallelism =
+        Math.max(1, Math.min(maxParallelism, Runtime.getRuntime().availableProcessors()));
+    pool = new ForkJoinPool(parallelism);
+  }
+
+  public int getParallelism() {
+    return pool.getParallelism();
+  }
+
+  /**
+   * Parallel equivalent of {@link ImageUtils#convertYUV420ToARGB8888}. Blocks until the whole frame
+   * has been converted.
+   */
+  public void convertYUV420ToARGB8888(
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int[] out) {
+    convert(
+        height,
+        (rowStart, rowEnd) ->
+            ImageUtils.convertYUV420ToARGB8888Rows(
+                yData,
+                uData,
+                vData,
+                width,
+                rowStart,
+                rowEnd,
+                yRowStride,
+                uvRowStride,
+                uvPixelStride,
+                out));
+  }
+
+  /**
+   * Parallel equivalent of {@link ImageUtils#convertYUV420ToARGB8888} reading the planes in place
+   * from {@code ByteBuffer}s. Blocks until the whole frame has been converted.
+   */
+  public void convertYUV420ToARGB8888(
+      final ByteBuffer yBuffer,
+      final ByteBuffer uBuffer,
+      final ByteBuffer vBuffer,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int[] out) {
+    convert(
+        height,
+        (rowStart, rowEnd) ->
+            ImageUtils.convertYUV420ToARGB8888Rows(
+                yBuffer,
+                uBuffer,
+                vBuffer,
+                width,
+                rowStart,
+                rowEnd,
+                yRowStride,
+                uvRowStride,
+                uvPixelStride,
+                out));
+  }
+
+  /**
+   * Parallel equivalent of the region conversion in {@link ImageUtils#convertYUV420ToARGB8888}.
+   * Blocks until the whole region has been converted.
+   */
+  public void convertYUV420ToARGB8888(
+      final ByteBuffer yBuffer,
+      final ByteBuffer uBuffer,
+      final ByteBuffer vBuffer,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final Rect region,
+      final int step,
+      final int[] out) {
+    final int left = region.left;
+    final int top = region.top;
+    final int outWidth = ImageUtils.getSampledLength(region.width(), step);
+    // With step 1 the region starts on an even row, so even output stripes keep chroma row pairs
+    // together. With a larger step each output row is sampled from its own chroma row.
+    convert(
+        ImageUtils.getSampledLength(region.height(), step),
+        (rowStart, rowEnd) ->
+            ImageUtils.convertYUV420ToARGB8888Region(
+                yBuffer,
+                uBuffer,
+                vBuffer,
+                left,
+                top,
+                step,
+                outWidth,
+                rowStart,
+                rowEnd,
+                yRowStride,
+                uvRowStride,
+                uvPixelStride,
+                out));
+  }
+
+  private void convert(final int height, final RowConverter converter) {
+    // Round the stripe height up to an even number of rows.
+    final int stripeRows = ((height + pool.getParallelism() - 1) / pool.getParallelism() + 1) & ~1;
+    pool.invoke(new StripeTask(converter, 0, height, stripeRows));
+  }
+
+  /** Stops the worker threads. The converter must not be used afterwards. */
+  public void close() {
+    pool.shutdown();
+  }
+
+  /** Converts the rows in [rowStart, rowEnd) of a frame. */
+  private interface RowConverter {
+    void convertRows(int rowStart, int rowEnd);
+  }
+
+  /** Splits a row range in halves at even rows until it is at most one stripe high. */
+  private static class StripeTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final RowConverter converter;
+    private final int rowStart;
+    private final int rowEnd;
+    private final int stripeRows;
+
+    StripeTask(
+        final RowConverter converter, final int rowStart, final int rowEnd, final int stripeRows) {
+      this.converter = converter;
+      this.rowStart = rowStart;
+      this.rowEnd = rowEnd;
+      this.stripeRows = stripeRows;
+    }
+
+    @Override
+    protected void compute() {
+      if (rowEnd - rowStart <= stripeRows) {
+        converter.convertRows(rowStart, rowEnd);
+        return;
+      }
+
+      // rowStart is always even, so is the split point.
+      final int stripes = (rowEnd - rowStart + stripeRows - 1) / stripeRows;
+      final int rowSplit = rowStart + (stripes / 2) * stripeRows;
+      invokeAll(
+          new StripeTask(converter, rowStart, rowSplit, stripeRows),
+          new StripeTask(converter, rowSplit, rowEnd, stripeRows));
+    }
+  }
+}
@@ -0,0 +1,226 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import android.graphics.Matrix;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes camera frames straight into a model input buffer in a single pass. Every input pixel is
+ * sampled from the YUV planes through the inverse of the frame to crop transform, which replaces
+ * converting the whole frame to ARGB, drawing it into a cropped Bitmap and reading the pixels back.
+ *
+ * <p>Sampling is nearest neighbor, matching {@code Canvas.drawBitmap} without a Paint. Input pixels
+ * that map outside of the frame are written as if the pixel value was 0. Channels are written as
+ * unsigned bytes unless float normalization is selected with {@link #setNormalization}.
+ */
+public class YuvToTensorConverter {
+  private final int frameWidth;
+  private final int frameHeight;
+  private final int tensorWidth;
+  private final int tensorHeight;
+
+  private boolean quantized = true;
+  private float imageMean = 0.0f;
+  private float imageStd = 1.0f;
+
+  // The frame pixel sampled by each input pixel, or -1 if it falls outside of the frame.
+  private final int[] frameX;
+  private final int[] frameY;
+
+  // Plane offsets of the sampled pixels, rebuilt whenever the plane strides change.
+  private int[] lumaIndex;
+  private int[] chromaIndex;
+  private int yRowStride = -1;
+  private int uvRowStride = -1;
+  private int uvPixelStride = -1;
+
+  /**
+   * Creates a converter.
+   *
+   * @param frameWidth Width of the camera frame.
+   * @param frameHeight Height of the camera frame.
+   * @param frameToCropTransform The transform from frame to input coordinates, as returned by
+   *     {@link ImageUtils#getTransformationMatrix}.
+   * @param tensorWidth Width of the model input.
+   * @param tensorHeight Height of the model input.
+   */
+  public YuvToTensorConverter(
+      final int frameWidth,
+      final int frameHeight,
+      final Matrix frameToCropTransform,
+      final int tensorWidth,
+      final int tensorHeight) {
+    this.frameWidth = frameWidth;
+    this.frameHeight = frameHeight;
+    this.tensorWidth = tensorWidth;
+    this.tensorHeight = tensorHeight;
+
+    final Matrix cropToFrameTransform = new Matrix();
+    frameToCropTransform.invert(cropToFrameTransform);
+    final float[] m = new float[9];
+    cropToFrameTransform.getValues(m);
+
+    frameX = new int[tensorWidth * tensorHeight];
+    frameY = new int[tensorWidth * tensorHeight];
+    for (int j = 0, p = 0; j < tensorHeight; j++) {
+      for (int i = 0; i < tensorWidth; i++, p++) {
+        // Sample at the pixel center, as the Canvas does.
+        final float x = i + 0.5f;
+        final float y = j + 0.5f;
+        final int fx =
+            (int) Math.floor(m[Matrix.MSCALE_X] * x + m[Matrix.MSKEW_X] * y + m[Matrix.MTRANS_X]);
+        final int fy =
+            (int) Math.floor(m[Matrix.MSKEW_Y] * x + m[Matrix.MSCALE_Y] * y + m[Matrix.MTRANS_Y]);
+        if (fx < 0 || fx >= frameWidth || fy < 0 || fy >= frameHeight) {
+          frameX[p] = -1;
+          frameY[p] = -1;
+        } else {
+          frameX[p] = fx;
+          frameY[p] = fy;
+        }
+      }
+    }
+  }
+
+  public int getTensorWidth() {
+    return tensorWidth;
+  }
+
+  public int getTensorHeight() {
+    return tensorHeight;
+  }
+
+  /**
+   * Selects how channel values are written.
+   *
+   * @param quantized If true, channels are written as unsigned bytes, otherwise as floats.
+   * @param imageMean Value subtracted from each channel of float inputs.
+   * @param imageStd Value each channel of float inputs is divided by.
+   */
+  public void setNormalization(
+      final boolean quantized, final float imageMean, final float imageStd) {
+    this.quantized = quantized;
+    this.imageMean = imageMean;
+    this.imageStd = imageStd;
+  }
+
+  /** Writes a YUV_420_888 frame, as delivered by the Camera2 API, into {@code out}. */
+  public void convertYUV420(
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final ByteBuffer out) {
+    updateIndices(yRowStride, uvRowStride, uvPixelStride);
+    convert(yData, uData, 0, vData, 0, out);
+  }
+
+  /**
+   * Writes a YUV_420_888 frame whose planes are read in place from {@code ByteBuffer}s, such as the
+   * ones returned by {@code Image.Plane.getBuffer()}, into {@code out}.
+   */
+  public void convertYUV420(
+      final ByteBuffer yBuffer,
+      final ByteBuffer uBuffer,
+      final ByteBuffer vBuffer,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final ByteBuffer out) {
+    updateIndices(yRowStride, uvRowStride, uvPixelStride);
+    out.rewind();
+    for (int p = 0; p < lumaIndex.length; p++) {
+      final int luma = lumaIndex[p];
+      if (luma < 0) {
+        putPixel(0, out);
+      } else {
+        final int chroma = chromaIndex[p];
+        putPixel(
+            ImageUtils.yuvToArgb(
+                0xff & yBuffer.get(luma), 0xff & uBuffer.get(chroma), 0xff & vBuffer.get(chroma)),
+            out);
+      }
+    }
+  }
+
+  /** Writes an NV21 frame, as delivered by the legacy camera API, into {@code out}. */
+  public void convertYUV420SP(final byte[] input, final ByteBuffer out) {
+    updateIndices(frameWidth, frameWidth, 2);
+    final int frameSize = frameWidth * frameHeight;
+    convert(input, input, frameSize + 1, input, frameSize, out);
+  }
+
+  private void updateIndices(final int yRowStride, final int uvRowStride, final int uvPixelStride) {
+    if (lumaIndex != null
+        && this.yRowStride == yRowStride
+        && this.uvRowStride == uvRowStride
+        && this.uvPixelStride == uvPixelStride) {
+      return;
+    }
+    this.yRowStride = yRowStride;
+    this.uvRowStride = uvRowStride;
+    this.uvPixelStride = uvPixelStride;
+
+    lumaIndex = new int[frameX.length];
+    chromaIndex = new int[frameX.length];
+    for (int p = 0; p < frameX.length; p++) {
+      if (frameX[p] < 0) {
+        lumaIndex[p] = -1;
+        chromaIndex[p] = -1;
+      } else {
+        lumaIndex[p] = frameY[p] * yRowStride + frameX[p];
+        chromaIndex[p] = (frameY[p] >> 1) * uvRowStride + (frameX[p] >> 1) * uvPixelStride;
+      }
+    }
+  }
+
+  private void convert(
+      final byte[] yData,
+      final byte[] uData,
+      final int uOffset,
+      final byte[] vData,
+      final int vOffset,
+      final ByteBuffer out) {
+    out.rewind();
+    for (int p = 0; p < lumaIndex.length; p++) {
+      final int luma = lumaIndex[p];
+      if (luma < 0) {
+        putPixel(0, out);
+      } else {
+        final int chroma = chromaIndex[p];
+        putPixel(
+            ImageUtils.yuvToArgb(
+                0xff & yData[luma], 0xff & uData[uOffset + chroma], 0xff & vData[vOffset + chroma]),
+            out);
+      }
+    }
+  }
+
+  private void putPixel(final int pixelValue, final ByteBuffer out) {
+    if (quantized) {
+      out.put((byte) ((pixelValue >> 16) & 0xFF));
+      out.put((byte) ((pixelValue >> 8) & 0xFF));
+      out.put((byte) (pixelValue & 0xFF));
+    } else {
+      out.putFloat((((pixelValue >> 16) & 0xFF) - imageMean) / imageStd);
+      out.putFloat((((pixelValue >> 8) & 0xFF) - imageMean) / imageStd);
+      out.putFloat(((pixelValue & 0xFF) - imageMean) / imageStd);
+    }
+  }
+}
@@ -0,0 +1,217 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shares memory-mapped models and label lists between all interpreters of the process, keyed by
+ * asset path. Rebuilding a classifier, e.g. for another thread count or device, then neither maps
+ * the model again nor re-reads its labels.
+ *
+ * <p>Every {@code acquire} must be matched by a {@code release}. Released assets stay cached until
+ * they are evicted, so that the next classifier finds them.
+ */
+public final class AssetCache {
+  private static class Entry<T> {
+    final T value;
+    int references;
+    // Identifies the content of a model, computed on demand.
+    String hash;
+
+    Entry(final T value) {
+      this.value = value;
+    }
+  }
+
+  private static final Map<String, Entry<MappedByteBuffer>> models = new HashMap<>();
+  private static final Map<String, Entry<List<String>>> labels = new HashMap<>();
+  private static long hitCount;
+  private static long missCount;
+
+  private AssetCache() {}
+
+  /** Returns the memory-mapped model at {@code path}, mapping it if it is not cached. */
+  public static synchronized MappedByteBuffer acquireModel(
+      final AssetManager assets, final String path) throws IOException {
+    Entry<MappedByteBuffer> entry = models.get(path);
+    if (entry == null) {
+      entry = new Entry<>(loadModelFile(assets, path));
+      models.put(path, entry);
+      ++missCount;
+    } else {
+      ++hitCount;
+    }
+    ++entry.references;
+    return entry.value;
+  }
+
+  /** Returns the unmodifiable lines of the label file at {@code path}, reading it if needed. */
+  public static synchronized List<String> acquireLabels(
+      final AssetManager assets, final String path) throws IOException {
+    Entry<List<String>> entry = labels.get(path);
+    if (entry == null) {
+      entry = new Entry<>(Collections.unmodifiableList(loadLabelList(assets, path)));
+      labels.put(path, entry);
+      ++missCount;
+    } else {
+      ++hitCount;
+    }
+    ++entry.references;
+    return entry.value;
+  }
+
+  /** Matches an {@link #acquireModel} call. */
+  public static synchronized void releaseModel(final String path) {
+    release(models, path);
+  }
+
+  /** Matches an {@link #acquireLabels} call. */
+  public static synchronized void releaseLabels(final String path) {
+    release(labels, path);
+  }
+
+  /**
+   * Drops the assets at {@code path} from the cache unless they are in use. A dropped model is
+   * unmapped once the garbage collector reclaims its buffer.
+   *
+   * @return True if nothing at {@code path} is cached anymore.
+   */
+  public static synchronized boolean evict(final String path) {
+    return evict(models, path) & evict(labels, path);
+  }
+
+  /** Drops every asset that is not in use from the cache. */
+  public static synchronized void evictUnused() {
+    evictUnused(models);
+    evictUnused(labels);
+  }
+
+  /**
+   * Returns the SHA-1 hash of the model at {@code path} in hex, to identify it across app updates
+   * that leave the model alone. The hash is computed on the first call.
+   *
+   * @throws IllegalStateException If the model is not cached.
+   */
+  public static synchronized String getModelHash(final String path) {
+    final Entry<MappedByteBuffer> entry = models.get(path);
+    if (entry == null) {
+      throw new IllegalStateException(path + " is not cached.");
+    }
+    if (entry.hash == null) {
+      entry.hash = hash(entry.value);
+    }
+    return entry.hash;
+  }
+
+  /** Returns how many acquisitions found their asset in the cache. */
+  public static synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  /** Returns how many acquisitions had to load their asset. */
+  public static synchronized long getMissCount() {
+    return missCount;
+  }
+
+  private static <T> void release(final Map<String, Entry<T>> entries, final String path) {
+    final Entry<T> entry = entries.get(path);
+    if (entry == null || entry.references == 0) {
+      throw new IllegalStateException("Released " + path + " more often than it was acquired.");
+    }
+    --entry.references;
+  }
+
+  private static <T> boolean evict(final Map<String, Entry<T>> entries, final String path) {
+    final Entry<T> entry = entries.get(path);
+    if (entry == null) {
+      return true;
+    }
+    if (entry.references > 0) {
+      return false;
+    }
+    entries.remove(path);
+    return true;
+  }
+
+  private static <T> void evictUnused(final Map<String, Entry<T>> entries) {
+    for (final Iterator<Entry<T>> it = entries.values().iterator(); it.hasNext(); ) {
+      if (it.next().references == 0) {
+        it.remove();
+      }
+    }
+  }
+
+  private static String hash(final ByteBuffer buffer) {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    // Leaves the position of the shared buffer alone.
+    final ByteBuffer content = buffer.duplicate();
+    content.rewind();
+    digest.update(content);
+    final StringBuilder hex = new StringBuilder();
+    for (final byte b : digest.digest()) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+
+  /** Memory-map the model file in Assets. */
+  private static MappedByteBuffer loadModelFile(final AssetManager assets, final String path)
+      throws IOException {
+    try (AssetFileDescriptor fileDescriptor = assets.openFd(path);
+        FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor())) {
+      FileChannel fileChannel = inputStream.getChannel();
+      long startOffset = fileDescriptor.getStartOffset();
+      long declaredLength = fileDescriptor.getDeclaredLength();
+      // The mapping stays valid after the channel is closed.
+      return fileChannel.map(FileChannel.MapMode.READ_ONLY, startOffset, declaredLength);
+    }
+  }
+
+  /** Reads label list from Assets. */
+  private static List<String> loadLabelList(final AssetManager assets, final String path)
+      throws IOException {
+    final List<String> labels = new ArrayList<String>();
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(assets.open(path)))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        labels.add(line);
+      }
+    }
+    return labels;
+  }
+}
@@ -17,12 +17,27 @@ package org.tensorflow.lite.examples.detection.tflite;
 
 import android.graphics.Bitmap;
 import android.graphics.RectF;
+import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.concurrent.Future;
 
 /** Generic interface for interacting with different recognition engines. */
 public interface Classifier {
   List<Recognition> recognizeImage(Bitmap bitmap);
 
+  /** Runs recognition on the input previously written into {@link #getInputBuffer()}. */
+  List<Recognition> recognizeInputBuffer();
+
+  /** Returns the buffer holding the model input, stored row by row as RGB. */
+  ByteBuffer getInputBuffer();
+
+  /** Returns true if the model input is stored as unsigned bytes rather than floats. */
+  boolean isQuantized();
+
+  float getImageMean();
+
+  float getImageStd();
+
   void enableStatLogging(final boolean debug);
 
   String getStatString();
@@ -33,6 +48,16 @@ public interface Classifier {
 
   void setUseNNAPI(boolean isChecked);
 
+  /** Returns true unless the classifier is still warming up or tuning its thread count. */
+  boolean isReady();
+
+  /**
+   * Starts picking the thread count with {@code tuner} in the background, after any warm-up. The
+   * classifier is not ready meanwhile. When its latency drifts later, it is tuned again on the
+   * following inferences.
+   */
+  Future<ThreadAutotuner.Result> startTuning(ThreadAutotuner tuner);
+
   /** An immutable result returned by a Classifier describing what was recognized. */
   public class Recognition {
     /**
@@ -0,0 +1,52 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+/**
+ * The normalized float model input for every 8 bit value of each color channel. Looking inputs up
+ * replaces a subtraction and a division per channel, and gives exactly the same floats.
+ */
+public final class NormalizationTables {
+  private static final int NUM_VALUES = 256;
+
+  public final float[] red = new float[NUM_VALUES];
+  public final float[] green = new float[NUM_VALUES];
+  public final float[] blue = new float[NUM_VALUES];
+
+  private NormalizationTables() {}
+
+  /** Returns tables holding (value - mean) / std for every channel. */
+  public static NormalizationTables subtractThenDivide(final float mean, final float std) {
+    return subtractThenDivide(new float[] {mean, mean, mean}, new float[] {std, std, std});
+  }
+
+  /**
+   * Returns tables holding (value - mean[c]) / std[c] for each channel c.
+   *
+   * @param mean Per-channel means, in RGB order.
+   * @param std Per-channel standard deviations, in RGB order.
+   */
+  public static NormalizationTables subtractThenDivide(final float[] mean, final float[] std) {
+    final NormalizationTables tables = new NormalizationTables();
+    final float[][] channels = {tables.red, tables.green, tables.blue};
+    for (int c = 0; c < channels.length; c++) {
+      for (int value = 0; value < NUM_VALUES; value++) {
+        channels[c][value] = (value - mean[c]) / std[c];
+      }
+    }
+    return tables;
+  }
+}
@@ -15,33 +15,31 @@ limitations under the License.
 
 package org.tensorflow.lite.examples.detection.tflite;
 
-import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
 import android.graphics.RectF;
-import android.os.Trace;
-import java.io.BufferedReader;
-import java.io.FileInputStream;
+import android.os.SystemClock;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Vector;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 import org.tensorflow.lite.Interpreter;
 import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.MetricsRegistry;
+import org.tensorflow.lite.examples.detection.env.MetricsRegistry.Stage;
+import org.tensorflow.lite.examples.detection.env.Tracer;
 
 /**
  * Wrapper for frozen detection models trained using the Tensorflow Object Detection API:
  * github.com/tensorflow/models/tree/master/research/object_detection
  */
-public class TFLiteObjectDetectionAPIModel implements Classifier {
+public class TFLiteObjectDetectionAPIModel implements Classifier, ThreadAutotuner.Target {
   private static final Logger LOGGER = new Logger();
 
   // Only return this many results.
@@ -49,13 +47,16 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
   // Float model
   private static final float IMAGE_MEAN = 128.0f;
   private static final float IMAGE_STD = 128.0f;
-  // Number of threads in the java app
+  // Number of threads in the java app, until tuned.
   private static final int NUM_THREADS = 4;
   private boolean isModelQuantized;
   // Config values.
   private int inputSize;
   // Pre-allocated buffers.
-  private Vector<String> labels = new Vector<String>();
+  private List<String> labels;
+  // Asset paths of the model and labels, to release them from the AssetCache.
+  private String modelPath;
+  private String labelPath;
   private int[] intValues;
   // outputLocations: array of shape [Batchsize, NUM_DETECTIONS,4]
   // contains the location of detected boxes
@@ -71,21 +72,22 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
   private float[] numDetections;
 
   private ByteBuffer imgData;
+  // Input values of float models, indexed by channel value.
+  private NormalizationTables normalization;
 
   private Interpreter tfLite;
 
-  private TFLiteObjectDetectionAPIModel() {}
+  // Serializes the warm-up with inference and reconfiguration.
+  private final Object interpreterLock = new Object();
+  private Future<InterpreterWarmUp.Stats> warmUp;
+  // Zeroed input and scratch outputs for warm-up and tuning runs, allocated by the first one.
+  private Object[] syntheticInputs;
+  private Map<Integer, Object> syntheticOutputs;
+  // The tuner picking the thread count, and the last tuning started. Set together.
+  private ThreadAutotuner tuner;
+  private volatile Future<ThreadAutotuner.Result> tuning;
 
-  /** Memory-map the model file in Assets. */
-  private static MappedByteBuffer loadModelFile(AssetManager assets, String modelFilename)
-      throws IOException {
-    AssetFileDescriptor fileDescriptor = assets.openFd(modelFilename);
-    FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor());
-    FileChannel fileChannel = inputStream.getChannel();
-    long startOffset = fileDescriptor.getStartOffset();
-    long declaredLength = fileDescriptor.getDeclaredLength();
-    return fileChannel.map(FileChannel.MapMode.READ_ONLY, startOffset, declaredLength);
-  }
+  private TFLiteObjectDetectionAPIModel() {}
 
   /**
    * Initializes a native TensorFlow session for classifying images.
@@ -105,23 +107,19 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
       throws IOException {
     final TFLiteObjectDetectionAPIModel d = new TFLiteObjectDetectionAPIModel();
 
-    InputStream labelsInput = null;
     String actualFilename = labelFilename.split("file:///android_asset/")[1];
-    labelsInput = assetManager.open(actualFilename);
-    BufferedReader br = null;
-    br = new BufferedReader(new InputStreamReader(labelsInput));
-    String line;
-    while ((line = br.readLine()) != null) {
-      LOGGER.w(line);
-      d.labels.add(line);
-    }
-    br.close();
+    d.labels = AssetCache.acquireLabels(assetManager, actualFilename);
+    d.labelPath = actualFilename;
 
     d.inputSize = inputSize;
 
     try {
-      d.tfLite = new Interpreter(loadModelFile(assetManager, modelFilename));
+      final MappedByteBuffer model = AssetCache.acquireModel(assetManager, modelFilename);
+      d.modelPath = modelFilename;
+      d.tfLite = new Interpreter(model);
     } catch (Exception e) {
+      // Releases the labels, and the model if it was loaded.
+      d.close();
       throw new RuntimeException(e);
     }
 
@@ -136,6 +134,9 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
     d.imgData = ByteBuffer.allocateDirect(1 * d.inputSize * d.inputSize * 3 * numBytesPerChannel);
     d.imgData.order(ByteOrder.nativeOrder());
     d.intValues = new int[d.inputSize * d.inputSize];
+    if (!isQuantized) {
+      d.normalization = NormalizationTables.subtractThenDivide(IMAGE_MEAN, IMAGE_STD);
+    }
 
     d.tfLite.setNumThreads(NUM_THREADS);
     d.outputLocations = new float[1][NUM_DETECTIONS][4];
@@ -145,12 +146,100 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
     return d;
   }
 
+  /**
+   * Initializes a detector like {@link #create(AssetManager, String, String, int, boolean)}, and
+   * starts warming it up, see {@link #startWarmUp}.
+   *
+   * @param warmUpRuns The number of synthetic inferences to warm up with, or 0 to skip warming up.
+   * @param executor Runs the warm-up, see {@link #startWarmUp}.
+   */
+  public static Classifier create(
+      final AssetManager assetManager,
+      final String modelFilename,
+      final String labelFilename,
+      final int inputSize,
+      final boolean isQuantized,
+      final int warmUpRuns,
+      final Executor executor)
+      throws IOException {
+    final TFLiteObjectDetectionAPIModel d =
+        (TFLiteObjectDetectionAPIModel)
+            create(assetManager, modelFilename, labelFilename, inputSize, isQuantized);
+    if (warmUpRuns > 0) {
+      d.startWarmUp(warmUpRuns, executor);
+    }
+    return d;
+  }
+
+  /**
+   * Starts running {@code runs} inferences on a zero input, so that the first real inference is as
+   * fast as the following ones. Inference waits for a warm-up run in progress, so callers that
+   * cannot afford to wait check {@link #isReady()} first.
+   *
+   * @param executor Runs the inferences, one task per run, preferably on the thread that runs the
+   *     real inferences.
+   * @return Completes with the cold and warm latencies once the detector is warm.
+   */
+  public Future<InterpreterWarmUp.Stats> startWarmUp(final int runs, final Executor executor) {
+    warmUp = InterpreterWarmUp.start(runs, this::runSyntheticInference, executor);
+    return warmUp;
+  }
+
+  @Override
+  public Future<ThreadAutotuner.Result> startTuning(final ThreadAutotuner tuner) {
+    synchronized (interpreterLock) {
+      this.tuner = tuner;
+      tuning = tuner.start(this, warmUp, true);
+      return tuning;
+    }
+  }
+
+  @Override
+  public String getModelHash() {
+    return AssetCache.getModelHash(modelPath);
+  }
+
+  @Override
+  public boolean runSyntheticInference() {
+    synchronized (interpreterLock) {
+      if (tfLite == null) {
+        return false;
+      }
+      if (syntheticInputs == null) {
+        // Direct buffers start out zeroed. The input buffer is left alone, since callers may be
+        // writing into it already.
+        final ByteBuffer zeroInput = ByteBuffer.allocateDirect(imgData.capacity());
+        zeroInput.order(ByteOrder.nativeOrder());
+        syntheticInputs = new Object[] {zeroInput};
+        syntheticOutputs = new HashMap<>();
+        syntheticOutputs.put(0, new float[1][NUM_DETECTIONS][4]);
+        syntheticOutputs.put(1, new float[1][NUM_DETECTIONS]);
+        syntheticOutputs.put(2, new float[1][NUM_DETECTIONS]);
+        syntheticOutputs.put(3, new float[1]);
+      }
+      tfLite.runForMultipleInputsOutputs(syntheticInputs, syntheticOutputs);
+      return true;
+    }
+  }
+
+  /** Returns the warm-up started by {@link #startWarmUp}, or null if there was none. */
+  public Future<InterpreterWarmUp.Stats> getWarmUp() {
+    return warmUp;
+  }
+
+  @Override
+  public boolean isReady() {
+    final Future<ThreadAutotuner.Result> tuning = this.tuning;
+    return (warmUp == null || warmUp.isDone()) && (tuning == null || tuning.isDone());
+  }
+
   @Override
   public List<Recognition> recognizeImage(final Bitmap bitmap) {
     // Log this method so that it can be analyzed with systrace.
-    Trace.beginSection("recognizeImage");
+    Tracer.beginSection("recognizeImage");
 
-    Trace.beginSection("preprocessBitmap");
+    Tracer.beginSection("preprocessBitmap");
+    final long startTime = SystemClock.elapsedRealtimeNanos();
     // Preprocess the image data from 0-255 int to normalized float based
     // on the provided parameters.
     bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
@@ -165,16 +254,31 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
           imgData.put((byte) ((pixelValue >> 8) & 0xFF));
           imgData.put((byte) (pixelValue & 0xFF));
         } else { // Float model
-          imgData.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-          imgData.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-          imgData.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+          imgData.putFloat(normalization.red[(pixelValue >> 16) & 0xFF]);
+          imgData.putFloat(normalization.green[(pixelValue >> 8) & 0xFF]);
+          imgData.putFloat(normalization.blue[pixelValue & 0xFF]);
         }
       }
     }
-    Trace.endSection(); // preprocessBitmap
+    MetricsRegistry.record(Stage.PREPROCESS, SystemClock.elapsedRealtimeNanos() - startTime);
+    Tracer.endSection(); // preprocessBitmap
+
+    final List<Recognition> recognitions = runInferenceAndGetResults();
+    Tracer.endSection(); // "recognizeImage"
+    return recognitions;
+  }
 
+  @Override
+  public List<Recognition> recognizeInputBuffer() {
+    Tracer.beginSection("recognizeImage");
+    final List<Recognition> recognitions = runInferenceAndGetResults();
+    Tracer.endSection(); // "recognizeImage"
+    return recognitions;
+  }
+
+  private List<Recognition> runInferenceAndGetResults() {
     // Copy the input data into TensorFlow.
-    Trace.beginSection("feed");
+    Tracer.beginSection("feed");
     outputLocations = new float[1][NUM_DETECTIONS][4];
     outputClasses = new float[1][NUM_DETECTIONS];
     outputScores = new float[1][NUM_DETECTIONS];
@@ -186,15 +290,24 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
     outputMap.put(1, outputClasses);
     outputMap.put(2, outputScores);
     outputMap.put(3, numDetections);
-    Trace.endSection();
+    Tracer.endSection();
 
     // Run the inference call.
-    Trace.beginSection("run");
-    tfLite.runForMultipleInputsOutputs(inputArray, outputMap);
-    Trace.endSection();
+    Tracer.beginSection("run");
+    synchronized (interpreterLock) {
+      final long startTime = SystemClock.elapsedRealtimeNanos();
+      tfLite.runForMultipleInputsOutputs(inputArray, outputMap);
+      final long elapsed = SystemClock.elapsedRealtimeNanos() - startTime;
+      MetricsRegistry.record(Stage.INFER, elapsed);
+      if (tuner != null && tuning.isDone()) {
+        tuner.recordLatency(this, elapsed);
+      }
+    }
+    Tracer.endSection();
 
     // Show the best detections.
     // after scaling them back to the input size.
+    final long postprocessStartTime = SystemClock.elapsedRealtimeNanos();
     final ArrayList<Recognition> recognitions = new ArrayList<>(NUM_DETECTIONS);
     for (int i = 0; i < NUM_DETECTIONS; ++i) {
       final RectF detection =
@@ -214,10 +327,31 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
               outputScores[0][i],
               detection));
     }
-    Trace.endSection(); // "recognizeImage"
+    MetricsRegistry.record(
+        Stage.POSTPROCESS, SystemClock.elapsedRealtimeNanos() - postprocessStartTime);
     return recognitions;
   }
 
+  @Override
+  public ByteBuffer getInputBuffer() {
+    return imgData;
+  }
+
+  @Override
+  public boolean isQuantized() {
+    return isModelQuantized;
+  }
+
+  @Override
+  public float getImageMean() {
+    return IMAGE_MEAN;
+  }
+
+  @Override
+  public float getImageStd() {
+    return IMAGE_STD;
+  }
+
   @Override
   public void enableStatLogging(final boolean logStats) {}
 
@@ -227,14 +361,34 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
   }
 
   @Override
-  public void close() {}
+  public void close() {
+    synchronized (interpreterLock) {
+      if (tfLite != null) {
+        tfLite.close();
+        tfLite = null;
+      }
+      if (modelPath != null) {
+        AssetCache.releaseModel(modelPath);
+        modelPath = null;
+      }
+      if (labelPath != null) {
+        AssetCache.releaseLabels(labelPath);
+        labelPath = null;
+      }
+    }
+  }
 
+  @Override
   public void setNumThreads(int num_threads) {
-    if (tfLite != null) tfLite.setNumThreads(num_threads);
+    synchronized (interpreterLock) {
+      if (tfLite != null) tfLite.setNumThreads(num_threads);
+    }
   }
 
   @Override
   public void setUseNNAPI(boolean isChecked) {
-    if (tfLite != null) tfLite.setUseNNAPI(isChecked);
+    synchronized (interpreterLock) {
+      if (tfLite != null) tfLite.setUseNNAPI(isChecked);
+    }
   }
 }
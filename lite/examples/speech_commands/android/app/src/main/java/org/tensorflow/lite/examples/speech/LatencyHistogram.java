@@ -0,0 +1,192 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.speech;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in fixed buckets at microsecond resolution. Recording neither locks nor
+ * allocates, so any thread may record on the hot path while another one reads percentiles.
+ *
+ * <p>Latencies below 32 us get a bucket each. Above that, every power of two is split into 16
+ * buckets, so a percentile is off by at most 1/16 of its value. Latencies from 2^27 us (about two
+ * minutes) on share the last bucket.
+ */
+public final class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int MAX_EXPONENT = 27;
+  private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+  /** Statistics of a histogram at one point in time, in microseconds. */
+  public static final class Snapshot {
+    private final long count;
+    private final long meanMicros;
+    private final long p50Micros;
+    private final long p90Micros;
+    private final long p99Micros;
+    private final long maxMicros;
+
+    private Snapshot(final long[] counts, final long totalMicros, final long maxMicros) {
+      long count = 0;
+      for (final long bucketCount : counts) {
+        count += bucketCount;
+      }
+      this.count = count;
+      this.meanMicros = count > 0 ? totalMicros / count : 0;
+      this.p50Micros = percentile(counts, count, 50, maxMicros);
+      this.p90Micros = percentile(counts, count, 90, maxMicros);
+      this.p99Micros = percentile(counts, count, 99, maxMicros);
+      this.maxMicros = maxMicros;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getMeanMicros() {
+      return meanMicros;
+    }
+
+    public long getP50Micros() {
+      return p50Micros;
+    }
+
+    public long getP90Micros() {
+      return p90Micros;
+    }
+
+    public long getP99Micros() {
+      return p99Micros;
+    }
+
+    public long getMaxMicros() {
+      return maxMicros;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "n=%d mean=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms",
+          count,
+          meanMicros / 1e3f,
+          p50Micros / 1e3f,
+          p90Micros / 1e3f,
+          p99Micros / 1e3f,
+          maxMicros / 1e3f);
+    }
+  }
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong totalMicros = new AtomicLong();
+  private final AtomicLong maxMicros = new AtomicLong();
+
+  /** Records a latency measured with {@code SystemClock.elapsedRealtimeNanos()}. */
+  public void recordNanos(final long nanos) {
+    recordMicros(nanos / 1000);
+  }
+
+  public void recordMicros(long micros) {
+    if (micros < 0) {
+      micros = 0;
+    }
+    counts.incrementAndGet(bucketOf(micros));
+    totalMicros.addAndGet(micros);
+    long max;
+    while (micros > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, micros)) {}
+  }
+
+  /**
+   * Returns the latency below which {@code percentile} percent of the recorded ones fall, or 0 if
+   * none were recorded. Reads the live counts without allocating, so it may miss latencies recorded
+   * meanwhile.
+   */
+  public long getPercentileMicros(final double percentile) {
+    long count = 0;
+    for (int i = 0; i < BUCKET_COUNT; ++i) {
+      count += counts.get(i);
+    }
+    long rank = rankOf(count, percentile);
+    for (int i = 0; i < BUCKET_COUNT && rank > 0; ++i) {
+      rank -= counts.get(i);
+      if (rank <= 0) {
+        return Math.min(valueOf(i), maxMicros.get());
+      }
+    }
+    return 0;
+  }
+
+  /** Copies the counts and summarizes them. Allocates, so keep it off the hot path. */
+  public Snapshot snapshot() {
+    final long[] copy = new long[BUCKET_COUNT];
+    for (int i = 0; i < BUCKET_COUNT; ++i) {
+      copy[i] = counts.get(i);
+    }
+    return new Snapshot(copy, totalMicros.get(), maxMicros.get());
+  }
+
+  /** Forgets all recorded latencies. Latencies recorded meanwhile may be partly kept. */
+  public void reset() {
+    for (int i = 0; i < BUCKET_COUNT; ++i) {
+      counts.set(i, 0);
+    }
+    totalMicros.set(0);
+    maxMicros.set(0);
+  }
+
+  static int bucketOf(final long micros) {
+    if (micros < 2 * SUB_BUCKETS) {
+      return (int) micros;
+    }
+    final int exponent = 63 - Long.numberOfLeadingZeros(micros);
+    if (exponent >= MAX_EXPONENT) {
+      return BUCKET_COUNT - 1;
+    }
+    // The top SUB_BUCKET_BITS + 1 bits select the bucket.
+    final int shift = exponent - SUB_BUCKET_BITS;
+    return (shift + 1) * SUB_BUCKETS + (int) (micros >> shift) - SUB_BUCKETS;
+  }
+
+  /** Returns the middle of the latencies counted by {@code bucket}. */
+  static long valueOf(final int bucket) {
+    if (bucket < 2 * SUB_BUCKETS) {
+      return bucket;
+    }
+    final int shift = bucket / SUB_BUCKETS - 1;
+    final long lowerBound = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    return lowerBound + ((1L << shift) - 1) / 2;
+  }
+
+  private static long rankOf(final long count, final double percentile) {
+    return Math.max(1, (long) Math.ceil(count * percentile / 100));
+  }
+
+  private static long percentile(
+      final long[] counts, final long count, final double percentile, final long maxMicros) {
+    if (count == 0) {
+      return 0;
+    }
+    long rank = rankOf(count, percentile);
+    for (int i = 0; i < counts.length; ++i) {
+      rank -= counts[i];
+      if (rank <= 0) {
+        return Math.min(valueOf(i), maxMicros);
+      }
+    }
+    return maxMicros;
+  }
+}
@@ -19,10 +19,29 @@ import android.util.Log;
 import java.util.HashSet;
 import java.util.Set;
 
-/** Wrapper for the platform log function, allows convenient message prefixing and log disabling. */
+/**
+ * Wrapper for the platform log function, allows convenient message prefixing and log disabling.
+ *
+ * <p>Messages are only formatted once their level is known to be logged. On hot paths, pass the
+ * arguments to a format instead of concatenating them, and prefer the overloads with one or two
+ * arguments: primitives are then neither boxed nor put into an array, so a disabled message costs
+ * no allocation. With {@link #startAsync} the messages are formatted and written on a background
+ * thread.
+ *
+ * <p>Those overloads widen integral arguments to {@code long}, so a {@code char} formats as its
+ * code with {@code %s} and fails with {@code %c}, and {@code %x} prints a negative {@code int} as
+ * 64 bits. Cast such arguments to {@code Object} to keep their type.
+ *
+ * <p>The level enabled for the tag with {@code adb shell setprop log.tag.<tag>} is looked up once
+ * per logger, and again after {@link #setMinLogLevel}.
+ */
 public final class Logger {
-  private static final String DEFAULT_TAG = "tensorflow";
+  static final String DEFAULT_TAG = "tensorflow";
   private static final int DEFAULT_MIN_LOG_LEVEL = Log.DEBUG;
+  private static final int TAG_LOG_LEVEL_UNKNOWN = -1;
+
+  // Writes the messages of all loggers while asynchronous logging is started.
+  private static volatile AsyncLogSink sink;
 
   // Classes to be ignored when examining the stack trace
   private static final Set<String> IGNORED_CLASS_NAMES;
@@ -37,6 +56,11 @@ public final class Logger {
   private final String tag;
   private final String messagePrefix;
   private int minLogLevel = DEFAULT_MIN_LOG_LEVEL;
+  // The lowest level enabled for the tag, see Log#isLoggable. Cached until setMinLogLevel, since
+  // every lookup is a JNI call reading a system property.
+  private int tagLogLevel = TAG_LOG_LEVEL_UNKNOWN;
+  // Set by setTagLogLevel, which stops the lookups.
+  private boolean tagLogLevelOverridden;
 
   /**
    * Creates a Logger using the class name as the message prefix.
@@ -84,14 +108,6 @@ public final class Logger {
     this.minLogLevel = minLogLevel;
   }
 
-  public void setMinLogLevel(final int minLogLevel) {
-    this.minLogLevel = minLogLevel;
-  }
-
-  public boolean isLoggable(final int logLevel) {
-    return logLevel >= minLogLevel || Log.isLoggable(tag, logLevel);
-  }
-
   /**
    * Return caller's simple name.
    *
@@ -120,67 +136,383 @@ public final class Logger {
     return Logger.class.getSimpleName();
   }
 
+  /**
+   * Starts formatting and writing the messages of all loggers on a background thread, until {@link
+   * #stopAsync}. Object arguments are formatted later, so they must not change once logged.
+   *
+   * @param capacity The number of messages kept until written, rounded up to a power of two. Any
+   *     more are dropped.
+   */
+  public static synchronized void startAsync(final int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("The sink needs room for at least one message.");
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    stopAsync();
+    sink = new AsyncLogSink(size);
+  }
+
+  /** Writes the messages still waiting, and goes back to writing on the logging thread. */
+  public static synchronized void stopAsync() {
+    final AsyncLogSink stopped = sink;
+    sink = null;
+    if (stopped != null) {
+      stopped.close();
+    }
+  }
+
+  /**
+   * Sets the lowest level logged whatever the level enabled for the tag. The level of the tag is
+   * looked up again on the next message, so that a level set with setprop since is picked up.
+   */
+  public void setMinLogLevel(final int minLogLevel) {
+    this.minLogLevel = minLogLevel;
+    if (!tagLogLevelOverridden) {
+      tagLogLevel = TAG_LOG_LEVEL_UNKNOWN;
+    }
+  }
+
+  /** Overrides the level looked up for the tag, e.g. to run without the Android runtime. */
+  void setTagLogLevel(final int tagLogLevel) {
+    this.tagLogLevel = tagLogLevel;
+    tagLogLevelOverridden = true;
+  }
+
+  public boolean isLoggable(final int logLevel) {
+    return logLevel >= minLogLevel || logLevel >= getTagLogLevel();
+  }
+
+  private int getTagLogLevel() {
+    int level = tagLogLevel;
+    if (level == TAG_LOG_LEVEL_UNKNOWN) {
+      level = Log.ASSERT + 1;
+      for (int candidate = Log.ASSERT; candidate >= Log.VERBOSE; --candidate) {
+        if (!Log.isLoggable(tag, candidate)) {
+          break;
+        }
+        level = candidate;
+      }
+      tagLogLevel = level;
+    }
+    return level;
+  }
+
   private String toMessage(final String format, final Object... args) {
     return messagePrefix + (args.length > 0 ? String.format(format, args) : format);
   }
 
+  private void logAll(
+      final int level, final Throwable t, final String format, final Object[] args) {
+    final AsyncLogSink sink = Logger.sink;
+    final AsyncLogSink.Record record = sink != null ? sink.claim() : null;
+    if (record != null) {
+      sink.publish(record.set(level, tag, messagePrefix, t, format).addAll(args));
+    } else if (sink == null) {
+      final String message = toMessage(format, args);
+      Log.println(level, tag, t != null ? message + '\n' + Log.getStackTraceString(t) : message);
+    }
+  }
+
+  private void log(final int level, final String message) {
+    final AsyncLogSink sink = Logger.sink;
+    final AsyncLogSink.Record record = sink != null ? sink.claim() : null;
+    if (record != null) {
+      sink.publish(record.set(level, tag, messagePrefix, null, message));
+    } else if (sink == null) {
+      Log.println(level, tag, messagePrefix + message);
+    }
+  }
+
+  private void log(final int level, final String format, final long arg) {
+    final AsyncLogSink sink = Logger.sink;
+    final AsyncLogSink.Record record = sink != null ? sink.claim() : null;
+    if (record != null) {
+      sink.publish(record.set(level, tag, messagePrefix, null, format).add(arg));
+    } else if (sink == null) {
+      Log.println(level, tag, messagePrefix + String.format(format, arg));
+    }
+  }
+
+  private void log(final int level, final String format, final double arg) {
+    final AsyncLogSink sink = Logger.sink;
+    final AsyncLogSink.Record record = sink != null ? sink.claim() : null;
+    if (record != null) {
+      sink.publish(record.set(level, tag, messagePrefix, null, format).add(arg));
+    } else if (sink == null) {
+      Log.println(level, tag, messagePrefix + String.format(format, arg));
+    }
+  }
+
+  private void log(final int level, final String format, final Object arg) {
+    final AsyncLogSink sink = Logger.sink;
+    final AsyncLogSink.Record record = sink != null ? sink.claim() : null;
+    if (record != null) {
+      sink.publish(record.set(level, tag, messagePrefix, null, format).add(arg));
+    } else if (sink == null) {
+      Log.println(level, tag, messagePrefix + String.format(format, arg));
+    }
+  }
+
+  private void log(final int level, final String format, final long arg1, final long arg2) {
+    final AsyncLogSink sink = Logger.sink;
+    final AsyncLogSink.Record record = sink != null ? sink.claim() : null;
+    if (record != null) {
+      sink.publish(record.set(level, tag, messagePrefix, null, format).add(arg1).add(arg2));
+    } else if (sink == null) {
+      Log.println(level, tag, messagePrefix + String.format(format, arg1, arg2));
+    }
+  }
+
+  private void log(final int level, final String format, final Object arg1, final Object arg2) {
+    final AsyncLogSink sink = Logger.sink;
+    final AsyncLogSink.Record record = sink != null ? sink.claim() : null;
+    if (record != null) {
+      sink.publish(record.set(level, tag, messagePrefix, null, format).add(arg1).add(arg2));
+    } else if (sink == null) {
+      Log.println(level, tag, messagePrefix + String.format(format, arg1, arg2));
+    }
+  }
+
+  public void v(final String message) {
+    if (isLoggable(Log.VERBOSE)) {
+      log(Log.VERBOSE, message);
+    }
+  }
+
+  public void v(final String format, final long arg) {
+    if (isLoggable(Log.VERBOSE)) {
+      log(Log.VERBOSE, format, arg);
+    }
+  }
+
+  public void v(final String format, final double arg) {
+    if (isLoggable(Log.VERBOSE)) {
+      log(Log.VERBOSE, format, arg);
+    }
+  }
+
+  public void v(final String format, final Object arg) {
+    if (isLoggable(Log.VERBOSE)) {
+      log(Log.VERBOSE, format, arg);
+    }
+  }
+
+  public void v(final String format, final long arg1, final long arg2) {
+    if (isLoggable(Log.VERBOSE)) {
+      log(Log.VERBOSE, format, arg1, arg2);
+    }
+  }
+
+  public void v(final String format, final Object arg1, final Object arg2) {
+    if (isLoggable(Log.VERBOSE)) {
+      log(Log.VERBOSE, format, arg1, arg2);
+    }
+  }
+
   public void v(final String format, final Object... args) {
     if (isLoggable(Log.VERBOSE)) {
-      Log.v(tag, toMessage(format, args));
+      logAll(Log.VERBOSE, null, format, args);
     }
   }
 
   public void v(final Throwable t, final String format, final Object... args) {
     if (isLoggable(Log.VERBOSE)) {
-      Log.v(tag, toMessage(format, args), t);
+      logAll(Log.VERBOSE, t, format, args);
+    }
+  }
+
+  public void d(final String message) {
+    if (isLoggable(Log.DEBUG)) {
+      log(Log.DEBUG, message);
+    }
+  }
+
+  public void d(final String format, final long arg) {
+    if (isLoggable(Log.DEBUG)) {
+      log(Log.DEBUG, format, arg);
+    }
+  }
+
+  public void d(final String format, final double arg) {
+    if (isLoggable(Log.DEBUG)) {
+      log(Log.DEBUG, format, arg);
+    }
+  }
+
+  public void d(final String format, final Object arg) {
+    if (isLoggable(Log.DEBUG)) {
+      log(Log.DEBUG, format, arg);
+    }
+  }
+
+  public void d(final String format, final long arg1, final long arg2) {
+    if (isLoggable(Log.DEBUG)) {
+      log(Log.DEBUG, format, arg1, arg2);
+    }
+  }
+
+  public void d(final String format, final Object arg1, final Object arg2) {
+    if (isLoggable(Log.DEBUG)) {
+      log(Log.DEBUG, format, arg1, arg2);
     }
   }
 
   public void d(final String format, final Object... args) {
     if (isLoggable(Log.DEBUG)) {
-      Log.d(tag, toMessage(format, args));
+      logAll(Log.DEBUG, null, format, args);
     }
   }
 
   public void d(final Throwable t, final String format, final Object... args) {
     if (isLoggable(Log.DEBUG)) {
-      Log.d(tag, toMessage(format, args), t);
+      logAll(Log.DEBUG, t, format, args);
+    }
+  }
+
+  public void i(final String message) {
+    if (isLoggable(Log.INFO)) {
+      log(Log.INFO, message);
+    }
+  }
+
+  public void i(final String format, final long arg) {
+    if (isLoggable(Log.INFO)) {
+      log(Log.INFO, format, arg);
+    }
+  }
+
+  public void i(final String format, final double arg) {
+    if (isLoggable(Log.INFO)) {
+      log(Log.INFO, format, arg);
+    }
+  }
+
+  public void i(final String format, final Object arg) {
+    if (isLoggable(Log.INFO)) {
+      log(Log.INFO, format, arg);
+    }
+  }
+
+  public void i(final String format, final long arg1, final long arg2) {
+    if (isLoggable(Log.INFO)) {
+      log(Log.INFO, format, arg1, arg2);
+    }
+  }
+
+  public void i(final String format, final Object arg1, final Object arg2) {
+    if (isLoggable(Log.INFO)) {
+      log(Log.INFO, format, arg1, arg2);
     }
   }
 
   public void i(final String format, final Object... args) {
     if (isLoggable(Log.INFO)) {
-      Log.i(tag, toMessage(format, args));
+      logAll(Log.INFO, null, format, args);
     }
   }
 
   public void i(final Throwable t, final String format, final Object... args) {
     if (isLoggable(Log.INFO)) {
-      Log.i(tag, toMessage(format, args), t);
+      logAll(Log.INFO, t, format, args);
+    }
+  }
+
+  public void w(final String message) {
+    if (isLoggable(Log.WARN)) {
+      log(Log.WARN, message);
+    }
+  }
+
+  public void w(final String format, final long arg) {
+    if (isLoggable(Log.WARN)) {
+      log(Log.WARN, format, arg);
+    }
+  }
+
+  public void w(final String format, final double arg) {
+    if (isLoggable(Log.WARN)) {
+      log(Log.WARN, format, arg);
+    }
+  }
+
+  public void w(final String format, final Object arg) {
+    if (isLoggable(Log.WARN)) {
+      log(Log.WARN, format, arg);
+    }
+  }
+
+  public void w(final String format, final long arg1, final long arg2) {
+    if (isLoggable(Log.WARN)) {
+      log(Log.WARN, format, arg1, arg2);
+    }
+  }
+
+  public void w(final String format, final Object arg1, final Object arg2) {
+    if (isLoggable(Log.WARN)) {
+      log(Log.WARN, format, arg1, arg2);
     }
   }
 
   public void w(final String format, final Object... args) {
     if (isLoggable(Log.WARN)) {
-      Log.w(tag, toMessage(format, args));
+      logAll(Log.WARN, null, format, args);
     }
   }
 
   public void w(final Throwable t, final String format, final Object... args) {
     if (isLoggable(Log.WARN)) {
-      Log.w(tag, toMessage(format, args), t);
+      logAll(Log.WARN, t, format, args);
+    }
+  }
+
+  public void e(final String message) {
+    if (isLoggable(Log.ERROR)) {
+      log(Log.ERROR, message);
+    }
+  }
+
+  public void e(final String format, final long arg) {
+    if (isLoggable(Log.ERROR)) {
+      log(Log.ERROR, format, arg);
+    }
+  }
+
+  public void e(final String format, final double arg) {
+    if (isLoggable(Log.ERROR)) {
+      log(Log.ERROR, format, arg);
+    }
+  }
+
+  public void e(final String format, final Object arg) {
+    if (isLoggable(Log.ERROR)) {
+      log(Log.ERROR, format, arg);
+    }
+  }
+
+  public void e(final String format, final long arg1, final long arg2) {
+    if (isLoggable(Log.ERROR)) {
+      log(Log.ERROR, format, arg1, arg2);
+    }
+  }
+
+  public void e(final String format, final Object arg1, final Object arg2) {
+    if (isLoggable(Log.ERROR)) {
+      log(Log.ERROR, format, arg1, arg2);
     }
   }
 
   public void e(final String format, final Object... args) {
     if (isLoggable(Log.ERROR)) {
-      Log.e(tag, toMessage(format, args));
+      logAll(Log.ERROR, null, format, args);
     }
   }
 
   public void e(final Throwable t, final String format, final Object... args) {
     if (isLoggable(Log.ERROR)) {
-      Log.e(tag, toMessage(format, args), t);
+      logAll(Log.ERROR, t, format, args);
     }
   }
 }
@@ -0,0 +1,79 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.speech;
+
+/**
+ * Process-wide latency histograms of the steps every recognition goes through. Code that runs a
+ * step records its latency with {@link #record}; the histograms are read with {@link #get} or
+ * dumped with {@link #dump()}.
+ */
+public final class MetricsRegistry {
+  /** The steps of a recognition. */
+  public enum Stage {
+    /** Captured data to the format of the model input. */
+    CONVERT,
+    /** Converted data to the model input. */
+    PREPROCESS,
+    /** Running the interpreter. */
+    INFER,
+    /** Model output to results. */
+    POSTPROCESS,
+    /** Matching results with the ones of earlier frames. */
+    TRACK,
+    /** Showing results. */
+    RENDER;
+
+    private final String displayName = name().toLowerCase();
+  }
+
+  private static final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+
+  static {
+    for (int i = 0; i < histograms.length; ++i) {
+      histograms[i] = new LatencyHistogram();
+    }
+  }
+
+  private MetricsRegistry() {}
+
+  /** Records the latency of {@code stage}, see {@link LatencyHistogram#recordNanos}. */
+  public static void record(final Stage stage, final long nanos) {
+    histograms[stage.ordinal()].recordNanos(nanos);
+  }
+
+  public static LatencyHistogram get(final Stage stage) {
+    return histograms[stage.ordinal()];
+  }
+
+  /** Returns one line per stage that recorded anything, with its count and percentiles. */
+  public static String dump() {
+    final StringBuilder dump = new StringBuilder();
+    for (final Stage stage : Stage.values()) {
+      final LatencyHistogram.Snapshot snapshot = get(stage).snapshot();
+      if (snapshot.getCount() > 0) {
+        dump.append(stage.displayName).append(": ").append(snapshot).append('\n');
+      }
+    }
+    return dump.toString();
+  }
+
+  /** Forgets the latencies of all stages. */
+  public static void reset() {
+    for (final LatencyHistogram histogram : histograms) {
+      histogram.reset();
+    }
+  }
+}
@@ -44,6 +44,7 @@ import android.os.Bundle;
 import android.os.Environment;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.design.widget.BottomSheetBehavior;
 import android.support.v4.app.ActivityCompat;
@@ -68,12 +69,12 @@ import java.io.InputStreamReader;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.locks.ReentrantLock;
 import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.examples.speech.MetricsRegistry.Stage;
 
 
 
@@ -141,7 +142,6 @@ public class SpeechActivity extends Activity
   private ImageView plusImageView, minusImageView;
   private SwitchCompat apiSwitchCompat;
   private TextView threadsTextView;
-  private long lastProcessingTimeMs;
   private Handler handler = new Handler();
   private TextView selectedTextView = null;
   private HandlerThread backgroundThread;
@@ -583,7 +583,7 @@ public class SpeechActivity extends Activity
 
     // Loop, grabbing recorded data and running the recognition model on it.
     while (shouldContinueRecognition) {
-      long startTime = new Date().getTime();
+      long startTime = SystemClock.elapsedRealtimeNanos();
       // The recording thread places data in this round-robin buffer, so lock to
       // make sure there's no writing happening and then copy it to our own
       // local version.
@@ -604,18 +604,24 @@ public class SpeechActivity extends Activity
         floatInputBuffer[i][0] = inputBuffer[i] / 32767.0f;
       }
 
+      MetricsRegistry.record(Stage.CONVERT, SystemClock.elapsedRealtimeNanos() - startTime);
+
       Object[] inputArray = {floatInputBuffer, sampleRateList};
       Map<Integer, Object> outputMap = new HashMap<>();
       outputMap.put(0, outputScores);
 
       // Run the model.
+      long inferenceStartTime = SystemClock.elapsedRealtimeNanos();
       tfLite.runForMultipleInputsOutputs(inputArray, outputMap);
+      MetricsRegistry.record(Stage.INFER, SystemClock.elapsedRealtimeNanos() - inferenceStartTime);
 
       // Use the smoother to figure out if we've had a real recognition event.
       long currentTime = System.currentTimeMillis();
+      long postprocessStartTime = SystemClock.elapsedRealtimeNanos();
       final RecognizeCommands.RecognitionResult result =
           recognizeCommands.processLatestResults(outputScores[0], currentTime);
-      lastProcessingTimeMs = new Date().getTime() - startTime;
+      MetricsRegistry.record(
+          Stage.POSTPROCESS, SystemClock.elapsedRealtimeNanos() - postprocessStartTime);
       //TODO: could i use the lastProcessingTimeMs so I can stay w/in just sA.java instead of tracking silent time in rC.java?
       //TODO: or even better! use -- result.totalSilence
 
@@ -624,7 +630,9 @@ public class SpeechActivity extends Activity
             @Override
             public void run() {
 
-              inferenceTimeTextView.setText(lastProcessingTimeMs + " ms");
+              long renderStartTime = SystemClock.elapsedRealtimeNanos();
+              inferenceTimeTextView.setText(
+                  MetricsRegistry.get(Stage.INFER).getPercentileMicros(50) / 1000 + " ms");
 
               // If we do have a new command, highlight the right list entry.
               if (!result.foundCommand.startsWith("_") && result.isNewCommand) {
@@ -696,6 +704,8 @@ public class SpeechActivity extends Activity
                       750);
                 }
               }
+              MetricsRegistry.record(
+                  Stage.RENDER, SystemClock.elapsedRealtimeNanos() - renderStartTime);
             }
           });
       try {
@@ -707,6 +717,7 @@ public class SpeechActivity extends Activity
     }
 
     Log.v(LOG_TAG, "End recognition");
+    Log.i(LOG_TAG, "Stage latencies:\n" + MetricsRegistry.dump());
   }
 
   @Override